@@ -0,0 +1,24 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Makes values from nodes while parsing, see {@link ParseTree#bind(Binder)}.
+ *
+ * Nodes are bound bottom up: when a node is done the values of its child
+ * nodes have already been bound. Values of nodes that are later discarded by
+ * backtracking are just dropped.
+ *
+ * @author jan
+ */
+public interface Binder {
+
+	/**
+	 * @param values the values of the child nodes are <code>values[from]</code>
+	 *        to <code>values[to-1]</code>, the array must not be kept
+	 * @return the value of the node
+	 */
+	Object bind(Rule rule, ByteBuffer input, int start, int end, Object[] values, int from, int to);
+}
@@ -0,0 +1,190 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Positions recorded while parsing from where parsing can be resumed, so a
+ * range of a large input can be parsed again without starting at the
+ * beginning.
+ *
+ * A checkpoint is recorded between two elements of a repetition directly
+ * within a node of one of the given rules (like the members of an object or
+ * the lines of a log), at most every so many bytes. It is the position, the
+ * rule of the repeated element, the index of the next node in the tree and the
+ * rules and starts of the enclosing nodes. Checkpoints within nodes that are
+ * later removed by backtracking and checkpoints after the position parsing
+ * continues at are removed as well.
+ *
+ * <pre>
+ * Checkpoints cps = Checkpoints.of(grammar, 64 * 1024, "array");
+ * Parser.parse(start, new ParseTree(grammar, n).checkpoint(cps), input);
+ * ParseTree range = cps.reparse(input, from, to);
+ * </pre>
+ *
+ * @author jan
+ */
+public final class Checkpoints {
+
+	/**
+	 * @param bytes minimum distance between two checkpoints
+	 * @param rules names of the rules whose nodes directly contain the
+	 *        repetitions
+	 */
+	public static Checkpoints of(Grammar grammar, int bytes, String... rules) {
+		boolean[] containers = new boolean[grammar.symbols()+1];
+		for (String rule : rules) {
+			containers[grammar.id(rule)] = true;
+		}
+		return new Checkpoints(grammar.keyTable(), bytes, containers);
+	}
+
+	private final Rule[] rules; // by key
+	private final int interval;
+	private final boolean[] containers; // by rule id
+	private int next;
+
+	private int[] offsets = new int[16];
+	private Rule[] elements = new Rule[16];
+	private int[] nodes = new int[16];
+	private Rule[][] ancestors = new Rule[16][];
+	private int[][] starts = new int[16][];
+	private int count;
+
+	private Checkpoints(Rule[] rules, int interval, boolean[] containers) {
+		super();
+		this.rules = rules;
+		this.interval = interval;
+		this.containers = containers;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return the input position of the checkpoint
+	 */
+	public int offset(int checkpoint) {
+		return offsets[checkpoint];
+	}
+
+	/**
+	 * @return the index in the tree of the first node parsed after the
+	 *         checkpoint
+	 */
+	public int node(int checkpoint) {
+		return nodes[checkpoint];
+	}
+
+	/**
+	 * @return the level of the node containing the repetition
+	 */
+	public int level(int checkpoint) {
+		return ancestors[checkpoint].length-1;
+	}
+
+	/**
+	 * @return the checkpoint with the highest offset at or before the position
+	 *         or -1 if there is none
+	 */
+	public int nearest(int position) {
+		int lo = 0;
+		int hi = count-1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (offsets[mid] <= position) {
+				lo = mid+1;
+			} else {
+				hi = mid-1;
+			}
+		}
+		return hi;
+	}
+
+	/**
+	 * Parses again from the nearest checkpoint before start until the end
+	 * position is reached or the repetition ends.
+	 *
+	 * The tree starts with the nodes enclosing the checkpoint (ending where
+	 * parsing stopped) followed by the nodes parsed, the first of those is
+	 * node {@link #node(int)} of the original tree. Levels are the same as in
+	 * the original tree.
+	 *
+	 * @throws NoSuchElementException if there is no checkpoint before start
+	 */
+	public ParseTree reparse(ByteBuffer input, int start, int end) {
+		final int c = nearest(start);
+		if (c < 0) {
+			throw new NoSuchElementException("No checkpoint before: "+start);
+		}
+		final Rule[] enclosing = ancestors[c];
+		ParseTree tree = new ParseTree(rules, Math.max(512, end - offsets[c]));
+		for (int l = 0; l < enclosing.length; l++) {
+			tree.push(enclosing[l], starts[c][l]);
+		}
+		int p = offsets[c];
+		while (p < end) {
+			final int pN = Parser.parse(elements[c], tree, input, p);
+			if (pN <= p) {
+				break;
+			}
+			p = pN;
+		}
+		for (int l = 0; l < enclosing.length; l++) {
+			tree.done(p);
+		}
+		return tree;
+	}
+
+	void reached(Rule element, ParseTree tree, int position) {
+		final int level = tree.openLevel();
+		if (position < next || level < 0) {
+			return;
+		}
+		final int container = tree.id(tree.openNode(level));
+		if (container >= containers.length || !containers[container]) {
+			return;
+		}
+		if (count == offsets.length) {
+			final int n = count * 2;
+			offsets = Arrays.copyOf(offsets, n);
+			elements = Arrays.copyOf(elements, n);
+			nodes = Arrays.copyOf(nodes, n);
+			ancestors = Arrays.copyOf(ancestors, n);
+			starts = Arrays.copyOf(starts, n);
+		}
+		Rule[] enclosing = new Rule[level+1];
+		int[] enclosingStarts = new int[level+1];
+		for (int l = 0; l <= level; l++) {
+			final int node = tree.openNode(l);
+			enclosing[l] = tree.rule(node);
+			enclosingStarts[l] = tree.start(node);
+		}
+		offsets[count] = position;
+		elements[count] = element;
+		nodes[count] = tree.count();
+		ancestors[count] = enclosing;
+		starts[count] = enclosingStarts;
+		count++;
+		next = position + interval;
+	}
+
+	/**
+	 * Removes the checkpoints after nodes that have been removed from the tree
+	 * and after the position parsing continues at.
+	 */
+	void truncate(int nodes, int position) {
+		if (count > 0 && (this.nodes[count-1] > nodes || offsets[count-1] > position)) {
+			while (count > 0 && (this.nodes[count-1] > nodes || offsets[count-1] > position)) {
+				count--;
+				ancestors[count] = null;
+				starts[count] = null;
+			}
+			next = count == 0 ? 0 : offsets[count-1] + interval;
+		}
+	}
+}
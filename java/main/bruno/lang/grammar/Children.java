@@ -0,0 +1,87 @@
+package bruno.lang.grammar;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * The direct child nodes of a node (or the root nodes) as
+ * {@link Spliterator} of their indices, see {@link NodeIndex#children(int)}.
+ *
+ * Each child is a complete subtree so the children can be processed
+ * independently, for example in a parallel stream. A split takes the node in
+ * the middle of the remaining range and walks up its parents to the child
+ * containing it, which is where the range is split. Moving from one child to
+ * the next uses the index after its subtree. Neither needs to look at the
+ * nodes in between.
+ *
+ * @author jan
+ */
+public final class Children implements Spliterator.OfInt {
+
+	private final NodeIndex nodes;
+	private final int parent;
+	private int index;
+	private final int end;
+
+	Children(NodeIndex nodes, int parent, int index, int end) {
+		super();
+		this.nodes = nodes;
+		this.parent = parent;
+		this.index = index;
+		this.end = end;
+	}
+
+	@Override
+	public boolean tryAdvance(IntConsumer action) {
+		if (index >= end) {
+			return false;
+		}
+		action.accept(index);
+		index = nodes.next(index);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(IntConsumer action) {
+		int i = index;
+		index = end;
+		while (i < end) {
+			action.accept(i);
+			i = nodes.next(i);
+		}
+	}
+
+	@Override
+	public Children trySplit() {
+		if (index >= end) {
+			return null;
+		}
+		int split = index + (end - index) / 2;
+		while (nodes.parent(split) != parent) {
+			split = nodes.parent(split);
+		}
+		if (split == index) {
+			split = nodes.next(index);
+		}
+		if (split >= end) {
+			return null;
+		}
+		Children prefix = new Children(nodes, parent, index, split);
+		index = split;
+		return prefix;
+	}
+
+	/**
+	 * @return the number of nodes in the remaining subtrees, an upper bound of
+	 *         the number of children
+	 */
+	@Override
+	public long estimateSize() {
+		return end - index;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+	}
+}
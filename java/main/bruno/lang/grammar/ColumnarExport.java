@@ -0,0 +1,170 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Writes a {@link ParseTree} as blocks of columns to a channel.
+ *
+ * All numbers are little-endian 32 bit integers, every block is padded to a
+ * multiple of 8 bytes.
+ *
+ * <pre>
+ * header   = magic('BPT1') version(1) flags nodes batch rules name*
+ * name     = length bytes (UTF-8)            (for rule ids 1 to rules)
+ * batch    = rows ids[rows] levels[rows] starts[rows] ends[rows] symbols[rows]?
+ * end      = rows(0)
+ * texts    = count offsets[count+1] bytes    (only with texts flag)
+ * </pre>
+ *
+ * The {@link #TEXTS} flag indicates that the tree had {@link Symbols}: each batch
+ * then has a column of symbol ids (0 for nodes without) and the texts of all
+ * symbols follow after the last batch like an Arrow string array, symbol
+ * <code>s</code> is bytes <code>offsets[s-1]</code> to
+ * <code>offsets[s]</code>. Each column of a batch starts 8 byte aligned.
+ *
+ * Just one buffer the size of a batch is used, so exporting is bounded by
+ * the speed of the channel and not by memory.
+ *
+ * @author jan
+ */
+public final class ColumnarExport {
+
+	public static final int MAGIC = 'B' | 'P' << 8 | 'T' << 16 | '1' << 24;
+	public static final int VERSION = 1;
+	public static final int TEXTS = 1;
+
+	private static final int BATCH = 1 << 14;
+
+	private ColumnarExport() {
+		super();
+	}
+
+	public static void write(ParseTree tree, WritableByteChannel out) throws IOException {
+		write(tree, out, BATCH);
+	}
+
+	public static void write(ParseTree tree, WritableByteChannel channel, int batch) throws IOException {
+		final Symbols symbols = tree.symbols();
+		final int columns = symbols == null ? 4 : 5;
+		Output out = new Output(channel, 8 + columns * padded(batch * 4));
+		final Rule[] rules = tree.rules();
+		int n = 0;
+		for (int key = 1; key < rules.length; key++) {
+			n = Math.max(n, rules[key].id);
+		}
+		Rule[] byId = new Rule[n+1];
+		for (int key = rules.length-1; key > 0; key--) {
+			byId[rules[key].id] = rules[key]; // the first of a name
+		}
+		ByteBuffer buf = out.reserve(24);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(symbols == null ? 0 : TEXTS);
+		buf.putInt(tree.count()).putInt(batch).putInt(n);
+		for (int id = 1; id <= n; id++) {
+			byte[] name = byId[id] == null ? new byte[0] : UTF8.bytes(byId[id].name);
+			out.reserve(4 + name.length).putInt(name.length).put(name);
+		}
+		out.pad();
+		final int c = tree.count();
+		for (int from = 0; from < c; from += batch) {
+			final int rows = Math.min(batch, c - from);
+			buf = out.reserve(8 + columns * padded(rows * 4));
+			buf.putInt(rows);
+			out.pad();
+			for (int i = from; i < from + rows; i++) {
+				buf.putInt(tree.id(i));
+			}
+			out.pad();
+			for (int i = from; i < from + rows; i++) {
+				buf.putInt(tree.level(i));
+			}
+			out.pad();
+			for (int i = from; i < from + rows; i++) {
+				buf.putInt(tree.start(i));
+			}
+			out.pad();
+			for (int i = from; i < from + rows; i++) {
+				buf.putInt(tree.end(i));
+			}
+			out.pad();
+			if (symbols != null) {
+				for (int i = from; i < from + rows; i++) {
+					buf.putInt(tree.symbol(i));
+				}
+				out.pad();
+			}
+		}
+		out.reserve(4).putInt(0);
+		out.pad();
+		if (symbols != null) {
+			final int count = symbols.count();
+			out.reserve(8).putInt(count).putInt(0);
+			int offset = 0;
+			for (int s = 1; s <= count; s++) {
+				offset += symbols.length(s);
+				out.reserve(4).putInt(offset);
+			}
+			out.pad();
+			for (int s = 1; s <= count; s++) {
+				byte[] text = symbols.bytes(s);
+				out.reserve(text.length).put(text);
+			}
+			out.pad();
+		}
+		out.flush();
+	}
+
+	private static int padded(int bytes) {
+		return (bytes + 7) & ~7;
+	}
+
+	/**
+	 * A buffer that is written to the channel when more room is needed.
+	 */
+	private static final class Output {
+
+		private final WritableByteChannel channel;
+		private ByteBuffer buf;
+		private long written;
+
+		Output(WritableByteChannel channel, int capacity) {
+			super();
+			this.channel = channel;
+			this.buf = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * @return the buffer having room for at least the given number of bytes
+		 */
+		ByteBuffer reserve(int bytes) throws IOException {
+			if (buf.remaining() < bytes) {
+				flush();
+				if (buf.capacity() < bytes) {
+					buf = ByteBuffer.allocateDirect(padded(bytes)).order(ByteOrder.LITTLE_ENDIAN);
+				}
+			}
+			return buf;
+		}
+
+		void pad() throws IOException {
+			final int padding = (int) (-(written + buf.position()) & 7);
+			reserve(padding);
+			for (int i = 0; i < padding; i++) {
+				buf.put((byte) 0);
+			}
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			written += buf.remaining();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			buf.clear();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+
+import bruno.lang.grammar.Grammar.Rule;
+import bruno.lang.grammar.Grammar.RuleType;
+
+/**
+ * Selects bracketed rules whose nodes are not parsed at first but just
+ * matched to their closing bracket, see {@link DeferredTree}.
+ *
+ * The brackets are the literals a rule starts and ends with, like
+ * <code>'{'</code> and <code>'}'</code> of a JSON <code>object</code>.
+ * Skipping a node counts nested brackets of the same kind and ignores
+ * brackets within <code>"</code> quoted strings (with <code>\</code> as
+ * escape). Only these strings are known, brackets within other strings or
+ * comments of a grammar are counted and so its rules cannot be deferred.
+ *
+ * @author jan
+ */
+public final class Deferred {
+
+	private static final byte QUOTE = '"';
+	private static final byte ESCAPE = '\\';
+
+	/**
+	 * @param rules names of bracketed rules
+	 * @throws IllegalArgumentException if a rule is not a sequence starting and
+	 *         ending with a literal
+	 */
+	public static Deferred of(Grammar grammar, String... rules) {
+		byte[][] opens = new byte[grammar.symbols()+1][];
+		byte[][] closes = new byte[opens.length][];
+		for (String name : rules) {
+			Rule rule = grammar.rule(name);
+			Rule body = rule.type == RuleType.CAPTURE ? rule.elements[0] : rule;
+			if (rule.type != RuleType.CAPTURE || body.type != RuleType.SEQUENCE
+					|| body.elements[0].type != RuleType.LITERAL
+					|| body.elements[body.elements.length-1].type != RuleType.LITERAL) {
+				throw new IllegalArgumentException("Rule is not bracketed: "+name);
+			}
+			opens[rule.id] = body.elements[0].literal;
+			closes[rule.id] = body.elements[body.elements.length-1].literal;
+		}
+		return new Deferred(opens, closes);
+	}
+
+	private final byte[][] opens; // by rule id, null if not deferred
+	private final byte[][] closes;
+	private final boolean[] firsts; // by first byte of an opening bracket
+
+	private Deferred(byte[][] opens, byte[][] closes) {
+		super();
+		this.opens = opens;
+		this.closes = closes;
+		this.firsts = new boolean[256];
+		for (byte[] open : opens) {
+			if (open != null) {
+				firsts[open[0] & 0xFF] = true;
+			}
+		}
+	}
+
+	public boolean defers(int rule) {
+		return rule < opens.length && opens[rule] != null;
+	}
+
+	/**
+	 * Brackets within <code>"</code> quoted strings are ignored, other strings
+	 * are not known.
+	 *
+	 * @return the position after the closing bracket matching the opening
+	 *         bracket at the given position or a mismatch (negative) like the
+	 *         {@link Parser}
+	 */
+	int skip(int rule, ByteBuffer input, int p0) {
+		final byte[] open = opens[rule];
+		final byte[] close = closes[rule];
+		final int pE = input.limit();
+		if (!at(open, input, p0)) {
+			return -p0-1;
+		}
+		int depth = 1;
+		int p = p0 + open.length;
+		while (p < pE) {
+			final byte b = input.get(p);
+			if (b == QUOTE) {
+				p = string(input, p);
+			} else if (at(close, input, p)) {
+				p += close.length;
+				if (--depth == 0) {
+					return p;
+				}
+			} else if (at(open, input, p)) {
+				p += open.length;
+				depth++;
+			} else {
+				p++;
+			}
+		}
+		return -pE-1;
+	}
+
+	/**
+	 * Used to walk the elements directly within a node.
+	 *
+	 * @return the position after the string or the deferred node (of any of
+	 *         the rules) starting at the given position or else the position
+	 *         after its byte
+	 */
+	int over(ByteBuffer input, int p) {
+		final byte b = input.get(p);
+		if (b == QUOTE) {
+			return string(input, p);
+		}
+		if (firsts[b & 0xFF]) {
+			for (int rule = 1; rule < opens.length; rule++) {
+				if (opens[rule] != null && at(opens[rule], input, p)) {
+					final int pN = skip(rule, input, p);
+					return pN < 0 ? p+1 : pN;
+				}
+			}
+		}
+		return p+1;
+	}
+
+	/**
+	 * @return the position after the string starting at the given position
+	 */
+	private static int string(ByteBuffer input, int p) {
+		final int pE = input.limit();
+		p++;
+		while (p < pE && input.get(p) != QUOTE) {
+			p += input.get(p) == ESCAPE ? 2 : 1;
+		}
+		return p+1;
+	}
+
+	private static boolean at(byte[] literal, ByteBuffer input, int p) {
+		if (p + literal.length > input.limit()) {
+			return false;
+		}
+		for (int i = 0; i < literal.length; i++) {
+			if (input.get(p+i) != literal[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
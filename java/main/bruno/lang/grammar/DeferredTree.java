@@ -0,0 +1,352 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import bruno.lang.grammar.Grammar.Rule;
+import bruno.lang.grammar.Grammar.RuleType;
+
+/**
+ * A parse tree where the nodes of {@link Deferred} rules are only parsed when
+ * they are expanded.
+ *
+ * The outline has a single node without children for each deferred node.
+ * Expanding it parses the node's rule at its position and gives another
+ * deferred tree with the node as its root, so nested deferred nodes again are
+ * just outlined. Expansions are kept so each node is parsed once.
+ *
+ * <pre>
+ * DeferredTree json = DeferredTree.parse(grammar, "file", input, Deferred.of(grammar, "object", "array"));
+ * json.outline ... json.expand(node).outline ...
+ * </pre>
+ *
+ * @author jan
+ */
+public final class DeferredTree {
+
+	/**
+	 * @throws ParseException if the input does not match or is not completely
+	 *         matched
+	 */
+	public static DeferredTree parse(Grammar grammar, String start, ByteBuffer input, Deferred deferred) {
+		ParseTree tree = new ParseTree(grammar, 512).defer(deferred); // grows, the outline is small
+		Parser.parse(grammar.rule(start.intern()), tree, input);
+		if (tree.end() < input.limit()) {
+			throw new ParseException(input, tree.end(), tree.end(), tree);
+		}
+		return new DeferredTree(tree.copy(), input, deferred, false);
+	}
+
+	public final ParseTree outline;
+	private final ByteBuffer input;
+	private final Deferred deferred;
+	private final boolean expandedRoot;
+	private DeferredTree[] expanded;
+
+	private DeferredTree(ParseTree outline, ByteBuffer input, Deferred deferred, boolean expandedRoot) {
+		super();
+		this.outline = outline;
+		this.input = input;
+		this.deferred = deferred;
+		this.expandedRoot = expandedRoot;
+	}
+
+	/**
+	 * @return true if the node has not been parsed yet
+	 */
+	public boolean isDeferred(int node) {
+		if (node == 0 && expandedRoot || !deferred.defers(outline.id(node))) {
+			return false;
+		}
+		return node+1 >= outline.count() || outline.level(node+1) <= outline.level(node);
+	}
+
+	/**
+	 * @return the tree of the deferred node with the node as root (at index 0
+	 *         and level 0)
+	 * @throws ParseException if the text of the node does not match its rule
+	 */
+	public DeferredTree expand(int node) {
+		return expand(node, null);
+	}
+
+	private DeferredTree expand(int node, Ranges ranges) {
+		if (!isDeferred(node)) {
+			throw new IllegalArgumentException("Node is not deferred: "+node);
+		}
+		if (expanded == null) {
+			expanded = new DeferredTree[outline.count()];
+		}
+		if (expanded[node] == null) {
+			final Rule rule = outline.rule(node);
+			final int start = outline.start(node);
+			final int end = outline.end(node);
+			ParseTree tree = new ParseTree(outline.rules(), 64).defer(deferred).splice(ranges);
+			tree.push(rule, start);
+			int pN = Parser.parse(rule.elements[0], tree, input, start);
+			if (pN != end) {
+				throw new ParseException(input, start, pN < 0 ? -pN-1 : pN, tree);
+			}
+			tree.done(pN, input);
+			expanded[node] = new DeferredTree(tree.splice(null), input, deferred, true);
+		}
+		return expanded[node];
+	}
+
+	/**
+	 * @return the full parse tree with all deferred nodes expanded
+	 */
+	public ParseTree expandAll() {
+		ParseTree full = new ParseTree(outline.rules(), count());
+		append(full, 0);
+		return full;
+	}
+
+	/**
+	 * Same as {@link #expandAll()} but the deferred nodes are expanded in
+	 * parallel. Each deferred node of at least the given size (in bytes) is
+	 * expanded by a task of its own, smaller ones by the task of the
+	 * enclosing node. The elements of a node of at least twice the size are
+	 * parsed in ranges of about the size by tasks of their own, see
+	 * {@link Ranges}.
+	 */
+	public ParseTree expandAll(ForkJoinPool pool, int minSize) {
+		pool.invoke(new Expansion(this, -1, minSize));
+		return expandAll();
+	}
+
+	/**
+	 * Expands a deferred node and all deferred nodes within.
+	 */
+	private static final class Expansion extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final DeferredTree tree;
+		private final int node;
+		private final int minSize;
+
+		Expansion(DeferredTree tree, int node, int minSize) {
+			super();
+			this.tree = tree;
+			this.node = node;
+			this.minSize = minSize;
+		}
+
+		@Override
+		protected void compute() {
+			expandAll(node < 0 ? tree : tree.expand(node, tree.ranges(node, minSize)), minSize);
+		}
+
+		private static void expandAll(DeferredTree tree, int minSize) {
+			final ParseTree outline = tree.outline;
+			if (tree.expanded == null) {
+				tree.expanded = new DeferredTree[outline.count()];
+			}
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (int i = 0; i < outline.count(); i++) {
+				if (tree.isDeferred(i) && outline.end(i) - outline.start(i) >= minSize) {
+					tasks.add(new Expansion(tree, i, minSize).fork());
+				}
+			}
+			for (int i = 0; i < outline.count(); i++) {
+				if (tree.isDeferred(i) && outline.end(i) - outline.start(i) < minSize) {
+					expandAll(tree.expand(i), minSize);
+				}
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		}
+	}
+
+	/**
+	 * Starts to parse the ranges of the elements of the first repetition
+	 * directly within the node. A range starts at the first position at or
+	 * after its nominal start (outside of strings and nested deferred nodes)
+	 * where an element can be parsed (a trial parse).
+	 *
+	 * @return the ranges or null if the node is too small or has no such
+	 *         repetition
+	 */
+	Ranges ranges(int node, int size) {
+		final int start = outline.start(node);
+		final int end = outline.end(node);
+		final Rule repetition = end - start < 2 * size ? null : repetition(outline.rule(node).elements[0]);
+		if (repetition == null) {
+			return null;
+		}
+		ParseTree trial = new ParseTree(outline.rules(), 64).defer(deferred);
+		int[] starts = new int[16];
+		int n = 0;
+		int nominal = start + size;
+		int p = start + 1; // after the opening bracket
+		while (p < end && nominal < end) {
+			if (p >= nominal) {
+				trial.clear();
+				try {
+					if (Parser.parse(repetition.elements[0], trial, input, p) > p) {
+						if (n == starts.length) {
+							starts = Arrays.copyOf(starts, n * 2);
+						}
+						starts[n++] = p;
+						nominal = p + size;
+					}
+				} catch (ParseException e) {
+					// not an element start
+				}
+			}
+			p = deferred.over(input, p);
+		}
+		return n == 0 ? null : new Ranges(repetition, Arrays.copyOf(starts, n), end, this);
+	}
+
+	/**
+	 * @return the first repetition of more than one element within the rule
+	 *         that is not within a node of its own
+	 */
+	private static Rule repetition(Rule rule) {
+		if (rule.type == RuleType.REPETITION && rule.occur.max > 1) {
+			return rule;
+		}
+		if (rule.type == RuleType.REPETITION || rule.type == RuleType.SEQUENCE) {
+			for (Rule e : rule.elements) {
+				final Rule r = repetition(e);
+				if (r != null) {
+					return r;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The ranges of elements of a node that are parsed by tasks of their own
+	 * while the node is parsed. When the repetition of the node reaches the
+	 * start of a range the range's nodes are spliced into the tree and
+	 * parsing continues after it. A range that did not start at an element
+	 * boundary is never reached and so is parsed again with the node. The
+	 * tree is the same as parsing without ranges.
+	 */
+	static final class Ranges {
+
+		final Rule repetition;
+		private final int[] starts;
+		private final ParseTree[] trees; // null if not matching
+		private final int[] ends;
+		private final int[] counts;
+		private final List<ForkJoinTask<?>> tasks;
+		private int next;
+		/**
+		 * The position after the ranges spliced last.
+		 */
+		int end;
+
+		Ranges(Rule repetition, int[] starts, final int until, final DeferredTree owner) {
+			super();
+			this.repetition = repetition;
+			this.starts = starts;
+			this.trees = new ParseTree[starts.length];
+			this.ends = new int[starts.length];
+			this.counts = new int[starts.length];
+			this.tasks = new ArrayList<>(starts.length);
+			for (int k = 0; k < starts.length; k++) {
+				final int range = k;
+				tasks.add(ForkJoinTask.adapt(new Runnable() {
+
+					@Override
+					public void run() {
+						parse(range, range+1 < Ranges.this.starts.length ? Ranges.this.starts[range+1] : until, owner);
+					}
+				}).fork());
+			}
+		}
+
+		/**
+		 * Parses elements as long as they start before the given position.
+		 */
+		void parse(int range, int until, DeferredTree owner) {
+			final Rule element = repetition.elements[0];
+			ParseTree tree = new ParseTree(owner.outline.rules(), 64).defer(owner.deferred);
+			int p = starts[range];
+			int c = 0;
+			try {
+				while (p < until && c < repetition.occur.max) {
+					final int pN = Parser.parse(element, tree, owner.input, p);
+					if (pN <= p) {
+						tree.erase(p);
+						break;
+					}
+					p = pN;
+					c++;
+				}
+			} catch (ParseException e) {
+				return; // parsed again with the node
+			}
+			trees[range] = tree;
+			ends[range] = p;
+			counts[range] = c;
+		}
+
+		/**
+		 * Appends the ranges that follow each other from the position to the
+		 * tree of the node (the node at level 0).
+		 *
+		 * @param max the number of elements that still may follow
+		 * @return the number of elements spliced, {@link #end} is the position
+		 *         after them
+		 */
+		int splice(ParseTree tree, int position, int max) {
+			if (tree.openLevel() != 0) {
+				return 0;
+			}
+			while (next < starts.length && starts[next] < position) {
+				next++;
+			}
+			int c = 0;
+			int p = position;
+			while (next < starts.length && starts[next] == p) {
+				tasks.get(next).join();
+				final ParseTree range = trees[next];
+				if (range == null || c + counts[next] > max) {
+					break;
+				}
+				for (int i = 0; i < range.count(); i++) {
+					tree.append(range.rule(i), range.level(i)+1, range.start(i), range.end(i));
+				}
+				c += counts[next];
+				p = ends[next];
+				trees[next] = null;
+				next++;
+			}
+			end = p;
+			return c;
+		}
+	}
+
+	/**
+	 * @return number of nodes when all deferred nodes are expanded
+	 */
+	private int count() {
+		int c = 0;
+		for (int i = 0; i < outline.count(); i++) {
+			c += isDeferred(i) ? expand(i).count() : 1;
+		}
+		return c;
+	}
+
+	private void append(ParseTree full, int level) {
+		for (int i = 0; i < outline.count(); i++) {
+			if (isDeferred(i)) {
+				expand(i).append(full, level + outline.level(i));
+			} else {
+				full.append(outline.rule(i), level + outline.level(i), outline.start(i), outline.end(i));
+			}
+		}
+	}
+}
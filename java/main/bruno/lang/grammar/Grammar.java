@@ -1,8 +1,14 @@
 package bruno.lang.grammar;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 
 /**
@@ -25,10 +31,118 @@ public final class Grammar implements Iterable<Grammar.Rule> {
 	}
 	
 	private final Rule[] rules;
+	private final Rule[] symbols; // by id, 0 is unused
+	private final Rule[] keys; // by key, 0 is unused
+	private final NameTable names;
+	private volatile long fingerprint;
 
+	/**
+	 * All named rules (and the captures reachable from them) are given a dense
+	 * id starting from 1. Rules with the same name share the id. Each rule
+	 * also gets a key, unique among the rules, so that parse trees refer to
+	 * the exact rule of a node. The first rule of a name has its id as key.
+	 * 
+	 * @throws IllegalArgumentException if a named rule already is part of
+	 *         another grammar (as it only has one id)
+	 */
 	public Grammar(Rule... namedRules) {
 		super();
 		this.rules = namedRules;
+		Map<String, Integer> ids = new HashMap<>();
+		List<Rule> symbols = new ArrayList<>();
+		List<Rule> others = new ArrayList<>(); // rules sharing the name of an earlier rule
+		symbols.add(null);
+		for (Rule r : namedRules) {
+			if (r != null && !r.name.isEmpty()) {
+				identify(r, ids, symbols, others);
+			}
+		}
+		Set<Rule> followed = new HashSet<>();
+		for (Rule r : namedRules) {
+			if (r != null) {
+				identifyCaptures(r, ids, symbols, others, followed);
+			}
+		}
+		this.symbols = symbols.toArray(new Rule[0]);
+		symbols.addAll(others);
+		this.keys = symbols.toArray(new Rule[0]);
+		for (int key = 1; key < keys.length; key++) {
+			keys[key].key = key;
+		}
+		String[] names = new String[this.symbols.length];
+		for (int id = 1; id < names.length; id++) {
+			names[id] = this.symbols[id].name;
+		}
+		this.names = new NameTable(names);
+	}
+
+	/**
+	 * Hashes the structure of the rule, named rules it refers to are just
+	 * hashed by name so the recursion ends.
+	 */
+	private static long fingerprint(long h, Rule rule, boolean named) {
+		h = fingerprint(h, rule.type.ordinal());
+		h = fingerprint(h, rule.name);
+		h = fingerprint(h, rule.substitute ? 1 : 0);
+		if (!rule.name.isEmpty() && !named) {
+			return h;
+		}
+		h = fingerprint(h, rule.occur.min);
+		h = fingerprint(h, rule.occur.max);
+		h = fingerprint(h, rule.ws == null ? -1 : rule.ws.ordinal());
+		h = fingerprint(h, rule.literal.length);
+		for (byte b : rule.literal) {
+			h = fingerprint(h, b);
+		}
+		final int[] ranges = rule.charset == null ? new int[0] : rule.charset.ranges;
+		h = fingerprint(h, ranges.length);
+		for (int r : ranges) {
+			h = fingerprint(h, r);
+		}
+		h = fingerprint(h, rule.elements.length);
+		for (Rule e : rule.elements) {
+			h = fingerprint(h, e, false);
+		}
+		return h;
+	}
+
+	private static long fingerprint(long h, String text) {
+		h = fingerprint(h, text.length());
+		for (int i = 0; i < text.length(); i++) {
+			h = fingerprint(h, text.charAt(i));
+		}
+		return h;
+	}
+
+	private static long fingerprint(long h, int value) {
+		return (h ^ value) * 0x100000001B3L;
+	}
+
+	private static void identify(Rule rule, Map<String, Integer> ids, List<Rule> symbols, List<Rule> others) {
+		if (rule.key != 0) {
+			throw new IllegalArgumentException("Rule is already part of another grammar: "+rule.name);
+		}
+		Integer id = ids.get(rule.name);
+		if (id == null) {
+			id = symbols.size();
+			ids.put(rule.name, id);
+			symbols.add(rule);
+		} else if (symbols.get(id) != rule && !others.contains(rule)) {
+			others.add(rule);
+		}
+		rule.id = id;
+	}
+
+	private static void identifyCaptures(Rule rule, Map<String, Integer> ids, List<Rule> symbols, List<Rule> others, Set<Rule> followed) {
+		if (!followed.add(rule)) {
+			return;
+		}
+		if (rule.type == RuleType.CAPTURE && !rule.name.isEmpty()) {
+			identify(rule, ids, symbols, others);
+		}
+		for (Rule e : rule.elements) {
+			identifyCaptures(e, ids, symbols, others, followed);
+		}
 	}
 	
 	@Override
@@ -37,12 +151,55 @@ public final class Grammar implements Iterable<Grammar.Rule> {
 	}
 
 	public Rule rule(String name) {
-		for (Rule r : rules) {
-			if (r != null && r.name.equals(name)) {
-					return r;
+		return symbols[id(name)];
+	}
+
+	/**
+	 * @return the id of the rule with the given name
+	 */
+	public int id(String name) {
+		int id = names.id(name);
+		if (id == 0) {
+			throw new NoSuchElementException("Missing rule: "+name);
+		}
+		return id;
+	}
+
+	/**
+	 * @param id 1 to {@link #symbols()} (inclusive)
+	 * @return the (first) rule having the id
+	 */
+	public Rule rule(int id) {
+		return symbols[id];
+	}
+
+	/**
+	 * @return a hash of the structure of the rules of this grammar, equal for
+	 *         grammars made from the same source
+	 */
+	public long fingerprint() {
+		if (fingerprint == 0L) {
+			long h = 0xCBF29CE484222325L;
+			for (int key = 1; key < keys.length; key++) {
+				h = fingerprint(h, keys[key], true);
 			}
+			fingerprint = h;
 		}
-		throw new NoSuchElementException("Missing rule: "+name);
+		return fingerprint;
+	}
+
+	/**
+	 * @return the number of ids (which is the highest id)
+	 */
+	public int symbols() {
+		return symbols.length-1;
+	}
+
+	/**
+	 * @return the rules by key, index 0 is unused
+	 */
+	Rule[] keyTable() {
+		return keys;
 	}
 
 	@Override
@@ -120,6 +277,16 @@ public final class Grammar implements Iterable<Grammar.Rule> {
 		public final CharacterSet charset;
 		public final Whitespace ws;
 
+		/**
+		 * Assigned when the rule becomes part of a {@link Grammar}, 0 before.
+		 * A rule can only be part of one grammar.
+		 */
+		int id;
+		/**
+		 * Assigned with the id, unique among the rules of the grammar.
+		 */
+		int key;
+
 		private Rule(RuleType type, boolean substitute, String name, Rule[] elements, Occur occur, byte[] literal, CharacterSet charset, Whitespace ws) {
 			super();
 			this.type = type;
@@ -132,6 +299,10 @@ public final class Grammar implements Iterable<Grammar.Rule> {
 			this.ws = ws;
 		}
 
+		public int id() {
+			return id;
+		}
+
 		public Rule is(String name) {
 			return named(name, false);
 		}
@@ -11,29 +11,96 @@ public final class IndexOverlayedFile {
 	public final ByteBuffer file;
 	public final ParseTree indexOverlay;
 	
+	// built on first use; building twice when racing is harmless as the
+	// indexes are immutable, volatile publishes them safely
+	private volatile LineIndex lines;
+	private volatile NodeIndex nodes;
+	private volatile RuleIndex rules;
+	
 	public IndexOverlayedFile(ByteBuffer file, ParseTree tree) {
 		super();
 		this.file = file;
 		this.indexOverlay = tree;
 	}
 	
+	/**
+	 * @return the (lazily built) line index of the file
+	 */
+	public LineIndex lines() {
+		LineIndex index = lines;
+		if (index == null) {
+			index = LineIndex.of(file);
+			lines = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * @return the (lazily built) position to node index of the file
+	 */
+	public NodeIndex nodes() {
+		NodeIndex index = nodes;
+		if (index == null) {
+			index = NodeIndex.of(indexOverlay);
+			nodes = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * @return the (lazily built) rule to nodes index of the file
+	 */
+	public RuleIndex rules() {
+		RuleIndex index = rules;
+		if (index == null) {
+			index = RuleIndex.of(indexOverlay);
+			rules = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * @return the index of the deepest node covering the given position or -1
+	 */
+	public int nodeAt(int position) {
+		return nodes().nodeAt(position);
+	}
+	
 	@Override
 	public String toString() {
 		return indexOverlay.toString();
 	}
 
 	public static IndexOverlayedFile read(String src, Grammar grammar, String start) throws IOException {
+		return parse(map(src), grammar, start);
+	}
+
+	/**
+	 * Parses the whole input starting with the given rule.
+	 * 
+	 * @throws ParseException if the input does not match or is not completely
+	 *         matched
+	 */
+	public static IndexOverlayedFile parse(ByteBuffer input, Grammar grammar, String start) {
+		return new IndexOverlayedFile(input, parse(grammar, start, input));
+	}
+
+	static ParseTree parse(Grammar grammar, String start, ByteBuffer input) {
+		ParseTree tree = new ParseTree(grammar, Math.max(512, input.limit()));
+		Parser.parse(grammar.rule(start.intern()), tree, input);
+		if (tree.end() < input.limit()) {
+			throw new ParseException(input, tree.end(), tree.end(), tree);
+		}
+		return tree;
+	}
+
+	static MappedByteBuffer map(String src) throws IOException {
 		RandomAccessFile aFile = new RandomAccessFile(src, "r");
 		FileChannel in = aFile.getChannel();
-		MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
-		ParseTree tree = new ParseTree(Math.max(512, buffer.capacity()));
 		try {
+			MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
 			buffer.load();
-			Parser.parse(grammar.rule(start.intern()), tree, buffer);
-			if (tree.end() < in.size()) {
-				throw new ParseException(buffer, tree.end(), tree.end(), tree);
-			}
-			return new IndexOverlayedFile(buffer, tree);
+			return buffer;
 		} finally {
 			in.close();
 			aFile.close();
@@ -0,0 +1,147 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A channel of the decompressed bytes of gzip input.
+ *
+ * The input is inflated by a background thread into a ring of direct buffers,
+ * the reader takes the filled buffers and gives them back when read. So
+ * decompression and parsing (for example with a {@link RecordReader} or
+ * {@link PushParser}) overlap, no temporary file is needed. When all buffers
+ * are filled the inflater waits for the reader. If inflating fails reading
+ * throws once the bytes inflated before are read.
+ *
+ * <pre>
+ * RecordReader r = new RecordReader(InflatingChannel.open(path), grammar, "json", 1 << 20);
+ * </pre>
+ *
+ * @author jan
+ */
+public final class InflatingChannel implements ReadableByteChannel {
+
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	public static InflatingChannel open(Path file) throws IOException {
+		return new InflatingChannel(Files.newInputStream(file), 4, 1 << 20);
+	}
+
+	private final BlockingQueue<ByteBuffer> filled;
+	private final BlockingQueue<ByteBuffer> empty;
+	private final Thread inflater;
+	private volatile Throwable failure;
+	private volatile boolean open = true;
+	private ByteBuffer current;
+	private boolean eof;
+
+	/**
+	 * @param buffers number of buffers in the ring
+	 * @param size size of each buffer in bytes
+	 */
+	public InflatingChannel(final InputStream compressed, int buffers, int size) {
+		super();
+		this.filled = new ArrayBlockingQueue<>(buffers+1);
+		this.empty = new ArrayBlockingQueue<>(buffers);
+		for (int i = 0; i < buffers; i++) {
+			empty.add(ByteBuffer.allocateDirect(size));
+		}
+		this.inflater = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				inflate(compressed);
+			}
+		}, "inflater");
+		inflater.setDaemon(true);
+		inflater.start();
+	}
+
+	private void inflate(InputStream compressed) {
+		try (ReadableByteChannel in = Channels.newChannel(new GZIPInputStream(compressed, 1 << 16))) {
+			while (true) {
+				ByteBuffer buf = empty.take();
+				buf.clear();
+				int r = 0;
+				while (buf.hasRemaining() && (r = in.read(buf)) >= 0) {
+					// fill
+				}
+				buf.flip();
+				if (buf.hasRemaining()) {
+					filled.put(buf);
+				}
+				if (r < 0) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (Throwable e) {
+			failure = e;
+		} finally {
+			filled.add(END); // there is always room for it
+		}
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		if (eof) {
+			return -1;
+		}
+		while (current == null || !current.hasRemaining()) {
+			if (current != null) {
+				empty.add(current);
+				current = null;
+			}
+			ByteBuffer buf;
+			try {
+				buf = filled.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (buf == END) {
+				eof = true;
+				final Throwable e = failure;
+				if (e instanceof IOException) {
+					throw (IOException) e;
+				}
+				if (e != null) {
+					throw new IOException("Inflating failed", e);
+				}
+				return -1;
+			}
+			current = buf;
+		}
+		final int n = Math.min(dst.remaining(), current.remaining());
+		final int limit = current.limit();
+		current.limit(current.position() + n);
+		dst.put(current);
+		current.limit(limit);
+		return n;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		inflater.interrupt();
+	}
+}
@@ -0,0 +1,163 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Binds the nodes of the <code>json.alma</code> grammar to plain Java values
+ * while parsing, so no tree is kept.
+ *
+ * <pre>
+ * object  -> Map&lt;String, Object&gt; (in order of the members)
+ * array   -> List&lt;Object&gt;
+ * string  -> String
+ * number  -> Long (Double if it has a fraction or does not fit a long)
+ * bool    -> Boolean
+ * null    -> null
+ * </pre>
+ *
+ * @author jan
+ */
+public final class JsonBinder implements Binder {
+
+	private static final int
+		OTHER = 0,
+		OBJECT = 1,
+		MEMBER = 2,
+		NAME = 3,
+		ARRAY = 4,
+		STRING = 5,
+		NUMBER = 6,
+		BOOL = 7,
+		NULL = 8;
+
+	private final Grammar json;
+	private final int[] kinds; // by rule id
+
+	public JsonBinder(Grammar json) {
+		super();
+		this.json = json;
+		this.kinds = new int[json.symbols()+1];
+		kinds[json.id("object")] = OBJECT;
+		kinds[json.id("member")] = MEMBER;
+		kinds[json.id("name")] = NAME;
+		kinds[json.id("array")] = ARRAY;
+		kinds[json.id("string")] = STRING;
+		kinds[json.id("number")] = NUMBER;
+		kinds[json.id("bool")] = BOOL;
+		kinds[json.id("null")] = NULL;
+	}
+
+	/**
+	 * @return the value of the JSON document
+	 * @throws ParseException if the input is not a JSON document
+	 */
+	public Object parse(ByteBuffer input) {
+		ParseTree tree = new ParseTree(json, 64).bind(this);
+		Parser.parse(json.rule("file"), tree, input);
+		if (tree.count() == 0 || tree.end() < input.limit()) {
+			final int end = tree.count() == 0 ? 0 : tree.end();
+			throw new ParseException(input, end, end, tree);
+		}
+		return tree.value(0);
+	}
+
+	@Override
+	public Object bind(Rule rule, ByteBuffer input, int start, int end, Object[] values, int from, int to) {
+		final int kind = rule.id < kinds.length ? kinds[rule.id] : OTHER;
+		switch (kind) {
+		case OBJECT:
+			Map<String, Object> object = new LinkedHashMap<>();
+			for (int i = from; i < to; i++) {
+				@SuppressWarnings("unchecked")
+				Entry<String, Object> member = (Entry<String, Object>) values[i];
+				object.put(member.getKey(), member.getValue());
+			}
+			return object;
+		case MEMBER:
+			return new SimpleImmutableEntry<>((String) values[from], values[from+1]);
+		case NAME:
+			return Text.of(input, start+1, end-1).toString();
+		case ARRAY:
+			List<Object> array = new ArrayList<>(to - from);
+			for (int i = from; i < to; i++) {
+				array.add(values[i]);
+			}
+			return array;
+		case STRING:
+			return string(input, start+1, end-1);
+		case NUMBER:
+			return number(input, start, end);
+		case BOOL:
+			return input.get(start) == 't' ? Boolean.TRUE : Boolean.FALSE;
+		case NULL:
+			return null;
+		default:
+			return to - from == 1 ? values[from] : null; // json, file
+		}
+	}
+
+	/**
+	 * @throws ParseException if the grammar matched a number that is none,
+	 *         like <code>-</code> or <code>-.</code>
+	 */
+	private static Object number(ByteBuffer input, int start, int end) {
+		try {
+			for (int i = start; i < end; i++) {
+				if (input.get(i) == '.') {
+					return Numbers.parseDouble(input, start, end);
+				}
+			}
+			try {
+				return Numbers.parseLong(input, start, end);
+			} catch (NumberFormatException e) {
+				return Numbers.parseDouble(input, start, end);
+			}
+		} catch (NumberFormatException e) {
+			throw new ParseException(input, start, end, null);
+		}
+	}
+
+	private static String string(ByteBuffer input, int start, int end) {
+		int i = start;
+		while (i < end && input.get(i) != '\\') {
+			i++;
+		}
+		if (i == end) {
+			return Text.of(input, start, end).toString();
+		}
+		StringBuilder b = new StringBuilder(end - start);
+		b.append(Text.of(input, start, i));
+		while (i < end) {
+			int s = i;
+			while (i < end && input.get(i) != '\\') {
+				i++;
+			}
+			b.append(Text.of(input, s, i));
+			if (i < end) {
+				final byte c = input.get(i+1);
+				i += 2;
+				switch (c) {
+				case 'n': b.append('\n'); break;
+				case 't': b.append('\t'); break;
+				case 'r': b.append('\r'); break;
+				case 'b': b.append('\b'); break;
+				case 'f': b.append('\f'); break;
+				case 'u':
+					b.append((char) Integer.parseInt(Text.of(input, i, i+4).toString(), 16));
+					i += 4;
+					break;
+				default: b.append((char) c);
+				}
+			}
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,117 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Indexes files larger than 2 GB that are a sequence of records (like NDJSON
+ * or logs).
+ *
+ * The file is mapped in regions of at most 1 GB. Each region is parsed record
+ * by record with the usual <code>int</code> positions within the region; the
+ * nodes are added to a {@link LongParseTree} with their <code>long</code>
+ * position in the file. A record that is cut by the end of a region is parsed
+ * again at the start of the next region, which is mapped starting with that
+ * record. As with the {@link RecordReader} a record is complete when it ends
+ * before the end of the region and invalid when it does not match whatever
+ * follows the region, and records are separated by whitespace.
+ *
+ * @author jan
+ */
+public final class LargeFile {
+
+	private static final int REGION = 1 << 30;
+
+	private LargeFile() {
+		super();
+	}
+
+	public static LongParseTree index(Path file, Grammar grammar, String record) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return index(channel, grammar, record, REGION);
+		}
+	}
+
+	/**
+	 * @param region the size of the mapped regions, limits the size of a record
+	 * @throws ParseException if a record does not match
+	 * @throws IllegalStateException if a record is larger than a region
+	 */
+	public static LongParseTree index(FileChannel file, Grammar grammar, String record, int region) throws IOException {
+		ParseTree tree = new ParseTree(grammar, 512);
+		LongParseTree index = new LongParseTree(tree.rules(), 1024);
+		parse(file, grammar.rule(record.intern()), tree, index, 0L, region, false);
+		return index;
+	}
+
+	/**
+	 * Parses the records from the given offset to the end of the file.
+	 *
+	 * @param growing true if more bytes might be appended to the file, then the
+	 *        last record is only complete if followed by whitespace and a
+	 *        mismatch at the end of the file is taken as an incomplete record
+	 * @return the offset after the last complete record (and whitespace
+	 *         following it)
+	 */
+	static long parse(FileChannel file, Rule rule, ParseTree tree, LongParseTree index, long from, int region, boolean growing) throws IOException {
+		final long size = file.size();
+		long base = from;
+		while (base < size) {
+			final int len = (int) Math.min(region, size - base);
+			final boolean end = base + len == size;
+			final boolean last = end && !growing; // nothing can follow
+			final MappedByteBuffer input = file.map(FileChannel.MapMode.READ_ONLY, base, len);
+			int p = 0;
+			while (true) {
+				while (p < len && isWhitespace(input.get(p))) {
+					p++;
+				}
+				if (p >= len) {
+					break;
+				}
+				tree.clear();
+				int pN;
+				try {
+					pN = Parser.parse(rule, tree, input, p);
+				} catch (ParseException e) {
+					if (last || !PushParser.incomplete(rule, tree, input, p)) {
+						throw e;
+					}
+					break;
+				}
+				if (pN > p && (pN < len || last)) {
+					index.append(tree, base);
+					p = pN;
+				} else if (last || pN < 0 && !PushParser.incomplete(rule, tree, input, p)) {
+					throw new ParseException(input, p, position(pN), tree);
+				} else {
+					break;
+				}
+			}
+			if (p == 0 && len == region) {
+				throw new IllegalStateException("Record at "+base+" does not fit into region of "+region+" bytes");
+			}
+			base += p;
+			if (end) {
+				break;
+			}
+		}
+		return base;
+	}
+
+	/**
+	 * @return the position of an end or mismatch
+	 */
+	private static int position(int pN) {
+		return pN < 0 ? -pN-1 : pN;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+}
@@ -0,0 +1,111 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Maps byte positions of an input to line and column and back.
+ *
+ * Lines and columns are zero based, columns are counted in bytes. A line
+ * starts after each <code>\n</code> so that <code>\r\n</code> line breaks are
+ * handled as well.
+ *
+ * The index is built with two passes over the input that both check 8 bytes
+ * at a time for line feeds. Lookups are binary searches.
+ *
+ * @author jan
+ */
+public final class LineIndex {
+
+	private static final long LF = 0x0A0A0A0A0A0A0A0AL;
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+	public static LineIndex of(ByteBuffer input) {
+		final int pE = input.limit();
+		int[] starts = new int[1+countLines(input, pE)];
+		int l = 1;
+		int p = 0;
+		for (; p + 8 <= pE; p += 8) {
+			if (lineFeeds(input.getLong(p)) > 0) {
+				for (int i = p; i < p+8; i++) {
+					if (input.get(i) == '\n') {
+						starts[l++] = i+1;
+					}
+				}
+			}
+		}
+		for (; p < pE; p++) {
+			if (input.get(p) == '\n') {
+				starts[l++] = p+1;
+			}
+		}
+		return new LineIndex(starts, pE);
+	}
+
+	private static int countLines(ByteBuffer input, int pE) {
+		int c = 0;
+		int p = 0;
+		for (; p + 8 <= pE; p += 8) {
+			c += lineFeeds(input.getLong(p));
+		}
+		for (; p < pE; p++) {
+			if (input.get(p) == '\n') {
+				c++;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return the number of <code>\n</code> bytes in the given 8 bytes
+	 */
+	private static int lineFeeds(long word) {
+		long x = word ^ LF; // bytes equal to \n become 0
+		return Long.bitCount(~(((x & LOW7) + LOW7) | x | LOW7));
+	}
+
+	private final int[] starts;
+	private final int length;
+
+	private LineIndex(int[] starts, int length) {
+		super();
+		this.starts = starts;
+		this.length = length;
+	}
+
+	public int lines() {
+		return starts.length;
+	}
+
+	public int line(int position) {
+		int i = Arrays.binarySearch(starts, position);
+		return i >= 0 ? i : -i-2;
+	}
+
+	public int column(int position) {
+		return position - starts[line(position)];
+	}
+
+	/**
+	 * @return the position of the first byte of the given line
+	 */
+	public int start(int line) {
+		return starts[line];
+	}
+
+	/**
+	 * @return the position after the last byte of the given line (including the line break)
+	 */
+	public int end(int line) {
+		return line+1 < starts.length ? starts[line+1] : length;
+	}
+
+	public int position(int line, int column) {
+		return starts[line] + column;
+	}
+
+	@Override
+	public String toString() {
+		return starts.length+" lines";
+	}
+}
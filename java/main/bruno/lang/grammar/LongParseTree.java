@@ -0,0 +1,93 @@
+package bruno.lang.grammar;
+
+import java.util.Arrays;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * A parse tree like {@link ParseTree} but with <code>long</code> positions for
+ * inputs larger than 2 GB, see {@link LargeFile}.
+ *
+ * It is a sequence of trees (one for each record), the root of each is at
+ * level 0.
+ *
+ * @author jan
+ */
+public final class LongParseTree {
+
+	private Rule[] rules;
+	private int[] keys;
+	private int[] levels;
+	private long[] starts;
+	private long[] ends;
+	private int count;
+	private int records;
+
+	/**
+	 * @param rules the rules by key of the trees appended
+	 */
+	LongParseTree(Rule[] rules, int nodes) {
+		super();
+		this.rules = rules;
+		this.keys = new int[nodes];
+		this.levels = new int[nodes];
+		this.starts = new long[nodes];
+		this.ends = new long[nodes];
+	}
+
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return number of trees (nodes at level 0)
+	 */
+	public int records() {
+		return records;
+	}
+
+	public int id(int index) {
+		return rules[keys[index]].id;
+	}
+
+	public Rule rule(int index) {
+		return rules[keys[index]];
+	}
+
+	public int level(int index) {
+		return levels[index];
+	}
+
+	public long start(int index) {
+		return starts[index];
+	}
+
+	public long end(int index) {
+		return ends[index];
+	}
+
+	/**
+	 * Appends all nodes of the tree moved by the given offset.
+	 */
+	void append(ParseTree tree, long offset) {
+		final int c = tree.count();
+		if (count + c > keys.length) {
+			final int n = Math.max(count + c, keys.length * 2);
+			keys = Arrays.copyOf(keys, n);
+			levels = Arrays.copyOf(levels, n);
+			starts = Arrays.copyOf(starts, n);
+			ends = Arrays.copyOf(ends, n);
+		}
+		rules = tree.rules(); // the same keys, maybe more rules learned
+		for (int i = 0; i < c; i++) {
+			keys[count] = tree.key(i);
+			levels[count] = tree.level(i);
+			starts[count] = offset + tree.start(i);
+			ends[count] = offset + tree.end(i);
+			if (levels[count] == 0) {
+				records++;
+			}
+			count++;
+		}
+	}
+}
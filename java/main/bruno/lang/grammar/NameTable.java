@@ -0,0 +1,122 @@
+package bruno.lang.grammar;
+
+import java.util.Arrays;
+
+/**
+ * A perfect hash table mapping the names of a {@link Grammar}'s rules to their
+ * ids.
+ *
+ * Names are first hashed into buckets of a few names. For each bucket a
+ * displacement is searched that puts all names of the bucket into free slots
+ * of the table (hash and displace). A lookup therefore is two hash functions
+ * and one comparison of the name.
+ *
+ * Both hashes are computed from the characters of the name with a seed (the
+ * displacement) so names with equal {@link String#hashCode()} can still be
+ * told apart.
+ *
+ * @author jan
+ */
+final class NameTable {
+
+	private final String[] names;
+	private final int[] ids;
+	private final int[] displacements;
+
+	NameTable(String[] names) {
+		int size = Integer.highestOneBit(Math.max(1, names.length)) * 4;
+		while (true) {
+			String[] slots = new String[size];
+			int[] ids = new int[size];
+			int[] displacements = new int[Math.max(1, names.length / 4)];
+			if (place(names, slots, ids, displacements)) {
+				this.names = slots;
+				this.ids = ids;
+				this.displacements = displacements;
+				return;
+			}
+			if (size > names.length * 64) {
+				throw new IllegalStateException("Names cannot be placed: "+Arrays.toString(names));
+			}
+			size *= 2;
+		}
+	}
+
+	/**
+	 * @param names names by id, index 0 is not used
+	 */
+	private static boolean place(String[] names, String[] slots, int[] ids, int[] displacements) {
+		final int buckets = displacements.length;
+		int[][] members = new int[buckets][];
+		int[] sizes = new int[buckets];
+		for (int id = 1; id < names.length; id++) {
+			int b = bucket(names[id], buckets);
+			if (members[b] == null) {
+				members[b] = new int[4];
+			} else if (sizes[b] == members[b].length) {
+				members[b] = Arrays.copyOf(members[b], sizes[b] * 2);
+			}
+			members[b][sizes[b]++] = id;
+		}
+		int largest = 0;
+		for (int b = 0; b < buckets; b++) {
+			largest = Math.max(largest, sizes[b]);
+		}
+		final int mask = slots.length-1;
+		final int[] taken = new int[largest];
+		// largest buckets first while there still are many free slots
+		for (int size = largest; size > 0; size--) {
+			for (int b = 0; b < buckets; b++) {
+				if (sizes[b] == size && !place(b, names, members[b], size, slots, ids, taken, mask, displacements)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean place(int b, String[] names, int[] members, int size, String[] slots, int[] ids, int[] taken, int mask, int[] displacements) {
+		search: for (int d = 1; d < 1 << 16; d++) {
+			for (int i = 0; i < size; i++) {
+				int slot = hash(names[members[i]], d) & mask;
+				if (slots[slot] != null) {
+					for (int j = 0; j < i; j++) {
+						slots[taken[j]] = null;
+					}
+					continue search;
+				}
+				slots[slot] = names[members[i]];
+				ids[slot] = members[i];
+				taken[i] = slot;
+			}
+			displacements[b] = d;
+			return true;
+		}
+		return false;
+	}
+
+	private static int bucket(String name, int buckets) {
+		return (hash(name, 0) & 0x7FFFFFFF) % buckets;
+	}
+
+	private static int hash(String name, int seed) {
+		int h = seed * 0x9E3779B9;
+		for (int i = 0; i < name.length(); i++) {
+			h = (h ^ name.charAt(i)) * 0x01000193;
+		}
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * @return the id of the given name or 0 if there is no such name
+	 */
+	int id(String name) {
+		final int slot = hash(name, displacements[bucket(name, displacements.length)]) & (names.length-1);
+		final String n = names[slot];
+		return n == name || name.equals(n) ? ids[slot] : 0;
+	}
+}
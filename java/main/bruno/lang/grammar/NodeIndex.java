@@ -0,0 +1,122 @@
+package bruno.lang.grammar;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds the nodes of a {@link ParseTree} covering a position in the input.
+ *
+ * The input is cut into segments at the start and end of each node, for each
+ * segment the deepest node covering it is known. As the segments are sorted
+ * by position the node at a position is found by binary search, independent
+ * of the depth of the tree.
+ *
+ * Also knows the parent of each node and the index after its subtree so that
+ * siblings are found without scanning the nodes in between, see
+ * {@link #children(int)}.
+ *
+ * @author jan
+ */
+public final class NodeIndex {
+
+	public static NodeIndex of(ParseTree tree) {
+		final int c = tree.count();
+		int[] parents = new int[c];
+		int[] nexts = new int[c];
+		int[] positions = new int[2 * c]; // segment starts
+		int[] deepest = new int[2 * c];   // node covering the segment or -1
+		int segments = 0;
+		int[] stack = new int[50];
+		int top = -1;
+		for (int i = 0; i <= c; i++) {
+			final int l = i < c ? tree.level(i) : 0;
+			while (top >= l) {
+				final int done = stack[top--];
+				nexts[done] = i;
+				positions[segments] = tree.end(done);
+				deepest[segments++] = parents[done];
+			}
+			if (i < c) {
+				if (l >= stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[l] = i;
+				top = l;
+				parents[i] = l == 0 ? -1 : stack[l-1];
+				positions[segments] = tree.start(i);
+				deepest[segments++] = i;
+			}
+		}
+		return new NodeIndex(parents, nexts, positions, deepest);
+	}
+
+	private final int[] parents;
+	private final int[] nexts;
+	private final int[] positions;
+	private final int[] deepest;
+
+	private NodeIndex(int[] parents, int[] nexts, int[] positions, int[] deepest) {
+		super();
+		this.parents = parents;
+		this.nexts = nexts;
+		this.positions = positions;
+		this.deepest = deepest;
+	}
+
+	public int count() {
+		return parents.length;
+	}
+
+	/**
+	 * @return the index of the parent node or -1 for root nodes
+	 */
+	public int parent(int index) {
+		return parents[index];
+	}
+
+	/**
+	 * @return the index after the subtree of the node, which is the index of
+	 *         its next sibling if it has one
+	 */
+	public int next(int index) {
+		return nexts[index];
+	}
+
+	/**
+	 * @param parent index of the parent node or -1 for the root nodes
+	 * @return the direct child nodes of the parent
+	 */
+	public Children children(int parent) {
+		final int first = parent+1;
+		final int end = parent < 0 ? parents.length : nexts[parent];
+		return new Children(this, parent, first, end);
+	}
+
+	/**
+	 * @param parent index of the parent node or -1 for the root nodes
+	 * @return a stream of the indices of the direct child nodes of the parent
+	 */
+	public IntStream children(int parent, boolean parallel) {
+		return StreamSupport.intStream(children(parent), parallel);
+	}
+
+	/**
+	 * @return the index of the deepest node covering the given position or -1
+	 *         if there is no such node
+	 */
+	public int nodeAt(int position) {
+		// the last segment starting at or before the position
+		int low = 0;
+		int high = positions.length-1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (positions[mid] <= position) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high < 0 ? -1 : deepest[high];
+	}
+}
@@ -0,0 +1,293 @@
+package bruno.lang.grammar;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes numbers directly from the bytes of the input, for example the text
+ * of a <code>number</code> node, without creating a {@link String} first.
+ *
+ * Digits may be separated by <code>_</code> or <code>,</code> as in bruno's
+ * <code>Number</code> (<code>1_000</code> or <code>1,000,000</code>).
+ *
+ * Decimals are converted to the closest double using Clinger's fast path for
+ * small exact values and the Eisel-Lemire algorithm otherwise. Only when that
+ * cannot decide (numbers with more than 19 significant digits close to the
+ * middle of two doubles) the text is handed to {@link Double#parseDouble(String)}.
+ *
+ * @author jan
+ */
+public final class Numbers {
+
+	private Numbers() {
+		super();
+	}
+
+	/**
+	 * <pre>
+	 * ['+-']? \9+ (['_,']? \9+)*
+	 * </pre>
+	 *
+	 * @throws NumberFormatException if the text is not an integer or out of
+	 *         the range of a long
+	 */
+	public static long parseLong(ByteBuffer input, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (input.get(i) == '-' || input.get(i) == '+')) {
+			negative = input.get(i++) == '-';
+		}
+		final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		final long multmin = limit / 10;
+		long result = 0; // accumulated negatively to cover MIN_VALUE
+		int digits = 0;
+		for (; i < end; i++) {
+			byte b = input.get(i);
+			if (b >= '0' && b <= '9') {
+				int d = b - '0';
+				if (result < multmin || result * 10 < limit + d) {
+					throw illegal(input, start, end);
+				}
+				result = result * 10 - d;
+				digits++;
+			} else if (!isSeparator(input, start, i, end)) {
+				throw illegal(input, start, end);
+			}
+		}
+		if (digits == 0) {
+			throw illegal(input, start, end);
+		}
+		return negative ? result : -result;
+	}
+
+	/**
+	 * <pre>
+	 * ['+-']? \9* ('.' \9*)? (['eE'] ['+-']? \9+)?
+	 * </pre>
+	 *
+	 * The integer and fraction part may contain separators between two digits
+	 * (as for {@link #parseLong(ByteBuffer, int, int)}) but at least one digit
+	 * is needed.
+	 *
+	 * @throws NumberFormatException if the text is not a decimal number
+	 */
+	public static double parseDouble(ByteBuffer input, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (input.get(i) == '-' || input.get(i) == '+')) {
+			negative = input.get(i++) == '-';
+		}
+		long w = 0;          // first 19 significant digits (unsigned)
+		int significant = 0; // all significant digits
+		int exponent = 0;    // decimal exponent of w
+		int digits = 0;
+		boolean fraction = false;
+		for (; i < end; i++) {
+			byte b = input.get(i);
+			if (b >= '0' && b <= '9') {
+				digits++;
+				if (significant > 0 || b != '0') {
+					if (significant < 19) {
+						w = w * 10 + (b - '0');
+						if (fraction) {
+							exponent--;
+						}
+					} else if (!fraction) {
+						exponent++;
+					}
+					significant++;
+				} else if (fraction) {
+					exponent--;
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else if (isSeparator(input, start, i, end)) {
+				// skip
+			} else {
+				break;
+			}
+		}
+		if (digits == 0) {
+			throw illegal(input, start, end);
+		}
+		if (i < end) {
+			byte e = input.get(i++);
+			if (e != 'e' && e != 'E' || i >= end) {
+				throw illegal(input, start, end);
+			}
+			boolean negativeExponent = false;
+			if (input.get(i) == '-' || input.get(i) == '+') {
+				negativeExponent = input.get(i++) == '-';
+			}
+			if (i >= end) {
+				throw illegal(input, start, end);
+			}
+			int x = 0;
+			for (; i < end; i++) {
+				byte b = input.get(i);
+				if (b < '0' || b > '9') {
+					throw illegal(input, start, end);
+				}
+				if (x < 100000) {
+					x = x * 10 + (b - '0');
+				}
+			}
+			exponent += negativeExponent ? -x : x;
+		}
+		if (significant <= 19) {
+			if (w >= 0 && w <= 1L << 53 && exponent >= -22 && exponent <= 22) {
+				double d = w; // exact
+				d = exponent < 0 ? d / POWERS_OF_TEN[-exponent] : d * POWERS_OF_TEN[exponent];
+				return negative ? -d : d;
+			}
+			long bits = eiselLemire(w, exponent);
+			if (bits >= 0) {
+				return Double.longBitsToDouble(negative ? bits | Long.MIN_VALUE : bits);
+			}
+		} else {
+			// the truncated w is a lower bound, w+1 an upper bound
+			long bits = eiselLemire(w, exponent);
+			if (bits >= 0 && bits == eiselLemire(w+1, exponent)) {
+				return Double.longBitsToDouble(negative ? bits | Long.MIN_VALUE : bits);
+			}
+		}
+		return Double.parseDouble(withoutSeparators(input, start, end));
+	}
+
+	/**
+	 * @return true if the byte at the position is a separator between two
+	 *         digits
+	 */
+	private static boolean isSeparator(ByteBuffer input, int start, int i, int end) {
+		final byte b = input.get(i);
+		return (b == '_' || b == ',') && i > start && isDigit(input.get(i-1)) && i+1 < end && isDigit(input.get(i+1));
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static NumberFormatException illegal(ByteBuffer input, int start, int end) {
+		return new NumberFormatException("Not a number: "+Text.of(input, start, end));
+	}
+
+	private static String withoutSeparators(ByteBuffer input, int start, int end) {
+		StringBuilder b = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = (char) input.get(i);
+			if (c != '_' && c != ',') {
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+
+	/*
+	 * Eisel-Lemire
+	 */
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private static final int SMALLEST_POWER = -342;
+	private static final int LARGEST_POWER = 308;
+
+	/**
+	 * The 128 most significant bits of 5^q for q from -342 to 308, as pairs of
+	 * longs (high, low). Powers with negative q are rounded up, positive ones
+	 * truncated.
+	 */
+	private static final long[] POWERS_OF_FIVE = powersOfFive();
+
+	private static long[] powersOfFive() {
+		long[] powers = new long[2 * (LARGEST_POWER - SMALLEST_POWER + 1)];
+		final BigInteger five = BigInteger.valueOf(5);
+		final BigInteger two127 = BigInteger.ONE.shiftLeft(127);
+		int i = 0;
+		for (int q = SMALLEST_POWER; q <= LARGEST_POWER; q++) {
+			BigInteger p;
+			if (q < 0) {
+				BigInteger power5 = five.pow(-q);
+				int z = power5.subtract(BigInteger.ONE).bitLength(); // 2^z >= 5^-q
+				int b = q >= -27 ? z + 127 : 2 * z + 128;
+				p = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+				int excess = p.bitLength() - 128;
+				if (excess > 0) {
+					p = p.shiftRight(excess);
+				}
+			} else {
+				p = five.pow(q);
+				int bits = p.bitLength();
+				p = bits > 128 ? p.shiftRight(bits - 128) : p.shiftLeft(128 - bits);
+			}
+			if (p.compareTo(two127) < 0) {
+				throw new IllegalStateException("Power of five not normalized: "+q);
+			}
+			powers[i++] = p.shiftRight(64).longValue();
+			powers[i++] = p.longValue();
+		}
+		return powers;
+	}
+
+	/**
+	 * @return the bits of the double closest to w * 10^q (w &gt; 0) or -1 if
+	 *         the result cannot be decided
+	 */
+	private static long eiselLemire(long w, int q) {
+		if (w == 0 || q < SMALLEST_POWER) {
+			return 0L;
+		}
+		if (q > LARGEST_POWER) {
+			return 0x7FFL << 52; // infinity
+		}
+		final int lz = Long.numberOfLeadingZeros(w);
+		w <<= lz;
+		final int index = 2 * (q - SMALLEST_POWER);
+		long high = multiplyHigh(w, POWERS_OF_FIVE[index]);
+		long low = w * POWERS_OF_FIVE[index];
+		final long precisionMask = 0xFFFFFFFFFFFFFFFFL >>> 55;
+		if ((high & precisionMask) == precisionMask) {
+			long secondHigh = multiplyHigh(w, POWERS_OF_FIVE[index+1]);
+			low += secondHigh;
+			if (Long.compareUnsigned(secondHigh, low) > 0) {
+				high++;
+			}
+		}
+		if (low == 0xFFFFFFFFFFFFFFFFL && (q < -27 || q > 55)) {
+			return -1L;
+		}
+		final int upperbit = (int) (high >>> 63);
+		long mantissa = high >>> (upperbit + 9);
+		int power2 = ((217706 * q) >> 16) + 63 + upperbit - lz + 1023;
+		if (power2 <= 0) { // subnormal
+			if (-power2 + 1 >= 64) {
+				return 0L;
+			}
+			mantissa >>>= -power2 + 1;
+			mantissa += mantissa & 1;
+			mantissa >>>= 1;
+			power2 = mantissa < 1L << 52 ? 0 : 1;
+			return mantissa & ~(1L << 52) | (long) power2 << 52;
+		}
+		if (Long.compareUnsigned(low, 1) <= 0 && q >= -4 && q <= 23 && (mantissa & 3) == 1
+				&& mantissa << (upperbit + 9) == high) {
+			mantissa &= ~1L; // exactly in the middle: round to even
+		}
+		mantissa += mantissa & 1;
+		mantissa >>>= 1;
+		if (mantissa >= 2L << 52) {
+			mantissa = 1L << 52;
+			power2++;
+		}
+		mantissa &= ~(1L << 52);
+		if (power2 >= 0x7FF) {
+			return 0x7FFL << 52;
+		}
+		return mantissa | (long) power2 << 52;
+	}
+
+	private static long multiplyHigh(long a, long b) {
+		return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+	}
+}
@@ -0,0 +1,183 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Parses large inputs using all cores of a {@link ForkJoinPool}.
+ *
+ * Inputs that are a sequence of records (like NDJSON or logs, see
+ * {@link RecordReader}) are cut into chunks. Each chunk starts at the first
+ * line after its nominal start where a record can be parsed (a trial parse)
+ * and parses records as long as they start before the nominal end of the
+ * chunk. The trees of the chunks are then stitched in order. Should a chunk
+ * not start where the previous chunk ended (a line within a record looked
+ * like a record) the chunk is resumed at the first of its records starting
+ * there or else parsed again from there.
+ *
+ * The trees are sequences of trees, one for each record with its root at
+ * level 0; they are the same as when parsing one record after the other.
+ *
+ * Inputs that are one large nested document (like a huge JSON array) are
+ * first outlined by matching the brackets of the {@link Deferred} rules, then
+ * the deferred nodes are parsed in parallel, see {@link #nested(Grammar,
+ * String, ByteBuffer, Deferred, ForkJoinPool, int)}.
+ *
+ * @author jan
+ */
+public final class ParallelParser {
+
+	private static final int MIN_CHUNK = 1 << 16;
+
+	private ParallelParser() {
+		super();
+	}
+
+	public static ParseTree records(Grammar grammar, String record, ByteBuffer input) {
+		return records(grammar, record, input, ForkJoinPool.commonPool(), MIN_CHUNK);
+	}
+
+	/**
+	 * @param minChunk the minimum size of a chunk in bytes
+	 * @throws ParseException if a record does not match
+	 */
+	public static ParseTree records(final Grammar grammar, String record, final ByteBuffer input, ForkJoinPool pool, int minChunk) {
+		final Rule rule = grammar.rule(record.intern());
+		final int len = input.limit();
+		final int size = Math.max(minChunk, len / (pool.getParallelism() * 4) + 1);
+		final int n = (len + size - 1) / size;
+		List<ForkJoinTask<ParseTree>> chunks = new ArrayList<>(n);
+		for (int k = 0; k < n; k++) {
+			final int from = k * size;
+			final int until = Math.min(len, from + size);
+			chunks.add(pool.submit(new Callable<ParseTree>() {
+
+				@Override
+				public ParseTree call() {
+					try {
+						return chunk(grammar, rule, input, from == 0 ? 0 : split(grammar, rule, input, from), until);
+					} catch (ParseException e) {
+						return null; // parsed again when stitching
+					}
+				}
+			}));
+		}
+		ParseTree tree = new ParseTree(grammar, Math.max(512, len / 8));
+		int pos = 0;
+		for (int k = 0; k < n; k++) {
+			final int until = Math.min(len, (k+1) * size);
+			final ParseTree chunk = chunks.get(k).join();
+			final int start = skipWhitespace(input, pos);
+			int first = -1;
+			if (chunk != null) {
+				for (int i = 0; i < chunk.count() && first < 0 && chunk.start(i) <= start; i++) {
+					if (chunk.level(i) == 0 && chunk.start(i) == start) {
+						first = i;
+					}
+				}
+			}
+			if (first < 0 && start < until) {
+				ParseTree again = chunk(grammar, rule, input, start, until);
+				pos = append(tree, again, 0, pos);
+			} else if (first >= 0) {
+				pos = append(tree, chunk, first, pos);
+			}
+		}
+		return tree;
+	}
+
+	public static ParseTree nested(Grammar grammar, String start, ByteBuffer input, Deferred deferred) {
+		return nested(grammar, start, input, deferred, ForkJoinPool.commonPool(), MIN_CHUNK / 16);
+	}
+
+	/**
+	 * Parses the input in two phases: the outline skips the deferred nodes by
+	 * matching brackets (aware of <code>"</code> strings), then each deferred node is parsed
+	 * as an independent parse of its rule and the trees are merged with their
+	 * levels moved below the deferred node, see {@link DeferredTree}.
+	 *
+	 * @param minSize deferred nodes smaller than this (in bytes) are parsed in
+	 *        the task of the enclosing node
+	 * @return the same tree as parsing without deferred rules
+	 * @throws ParseException if the input does not match
+	 */
+	public static ParseTree nested(Grammar grammar, String start, ByteBuffer input, Deferred deferred, ForkJoinPool pool, int minSize) {
+		return DeferredTree.parse(grammar, start, input, deferred).expandAll(pool, minSize);
+	}
+
+	/**
+	 * @return the end of the last node appended
+	 */
+	private static int append(ParseTree tree, ParseTree chunk, int from, int end) {
+		for (int i = from; i < chunk.count(); i++) {
+			tree.append(chunk.rule(i), chunk.level(i), chunk.start(i), chunk.end(i));
+			if (chunk.level(i) == 0) {
+				end = chunk.end(i);
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Parses the records starting before the given position.
+	 */
+	private static ParseTree chunk(Grammar grammar, Rule record, ByteBuffer input, int from, int until) {
+		ParseTree tree = new ParseTree(grammar, 512);
+		final int len = input.limit();
+		int p = skipWhitespace(input, from);
+		while (p < until && p < len) {
+			final int pN = Parser.parse(record, tree, input, p);
+			if (pN <= p) {
+				throw new ParseException(input, p, pN < 0 ? -pN-1 : pN, tree);
+			}
+			p = skipWhitespace(input, pN);
+		}
+		return tree;
+	}
+
+	/**
+	 * @return the start of the first line at or after the position where a
+	 *         record can be parsed or the end of input
+	 */
+	static int split(Grammar grammar, Rule record, ByteBuffer input, int position) {
+		final int len = input.limit();
+		ParseTree trial = new ParseTree(grammar, 512);
+		int p = position-1; // a line might start at the position
+		while (true) {
+			while (p < len && input.get(p) != '\n') {
+				p++;
+			}
+			p = skipWhitespace(input, p);
+			if (p >= len) {
+				return len;
+			}
+			trial.clear();
+			try {
+				final int pN = Parser.parse(record, trial, input, p);
+				if (pN > p && (pN == len || isWhitespace(input.get(pN)))) {
+					return p;
+				}
+			} catch (ParseException e) {
+				// not a record start
+			}
+		}
+	}
+
+	static int skipWhitespace(ByteBuffer input, int p) {
+		final int len = input.limit();
+		while (p < len && isWhitespace(input.get(p))) {
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+}
@@ -0,0 +1,178 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Remembers the parse trees of inputs already parsed.
+ *
+ * Entries are found by the {@link Grammar#fingerprint()}, the start rule and
+ * the SHA-256 digest of the input, the input itself is not kept.
+ *
+ * The cache holds {@link ParseTree#frozen()} trees that are shared by all
+ * users of the cache. Entries are evicted least recently used first when the
+ * estimated size of the trees exceeds the budget. All access is synchronized,
+ * parsing on a miss is done outside of the lock.
+ *
+ * @author jan
+ */
+public final class ParseCache {
+
+	private static final int NODE_BYTES = 16;
+	private static final int ENTRY_BYTES = 128;
+
+	private final long budget;
+	private final LinkedHashMap<Key, Parsed> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param budget maximum estimated memory in bytes used by the cached trees
+	 */
+	public ParseCache(long budget) {
+		super();
+		this.budget = budget;
+	}
+
+	public IndexOverlayedFile read(String src, Grammar grammar, String start) throws IOException {
+		ByteBuffer input = IndexOverlayedFile.map(src);
+		return new IndexOverlayedFile(input, parse(grammar, start, input));
+	}
+
+	/**
+	 * Same as {@link IndexOverlayedFile#parse(ByteBuffer, Grammar, String)} but
+	 * returns the cached tree if the same input has been parsed before.
+	 *
+	 * @return the shared (frozen) tree
+	 */
+	public ParseTree parse(Grammar grammar, String start, ByteBuffer input) {
+		final Key key = new Key(grammar.fingerprint(), start, digest(input), input.limit());
+		synchronized (this) {
+			Parsed p = entries.get(key);
+			if (p != null) {
+				hits++;
+				return p.tree;
+			}
+			misses++;
+		}
+		ParseTree tree = IndexOverlayedFile.parse(grammar, start, input).frozen();
+		if (ENTRY_BYTES + (long) tree.count() * NODE_BYTES > budget) {
+			return tree; // would evict everything else
+		}
+		Parsed p = new Parsed(tree);
+		synchronized (this) {
+			Parsed replaced = entries.put(key, p);
+			if (replaced != null) {
+				size -= replaced.size();
+			}
+			size += p.size();
+			Iterator<Entry<Key, Parsed>> lru = entries.entrySet().iterator();
+			while (size > budget && lru.hasNext()) {
+				Parsed evicted = lru.next().getValue();
+				if (evicted != p) {
+					lru.remove();
+					size -= evicted.size();
+					evictions++;
+				}
+			}
+		}
+		return tree;
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	public synchronized int entries() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the estimated memory in bytes used by the cached trees
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0L;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return entries.size()+" entries, "+size+"/"+budget+" bytes, "+hits+" hits, "+misses+" misses, "+evictions+" evictions";
+	}
+
+	static byte[] digest(ByteBuffer input) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			ByteBuffer all = input.duplicate();
+			all.position(0);
+			sha.update(all);
+			return sha.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every JVM has SHA-256
+		}
+	}
+
+	private static final class Key {
+
+		final long grammar;
+		final String start;
+		final byte[] content;
+		final int length;
+
+		Key(long grammar, String start, byte[] content, int length) {
+			super();
+			this.grammar = grammar;
+			this.start = start;
+			this.content = content;
+			this.length = length;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (grammar ^ grammar >>> 32) ^ Arrays.hashCode(content) ^ start.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return grammar == other.grammar && length == other.length && start.equals(other.start) && Arrays.equals(content, other.content);
+		}
+	}
+
+	private static final class Parsed {
+
+		final ParseTree tree;
+
+		Parsed(ParseTree tree) {
+			super();
+			this.tree = tree;
+		}
+
+		long size() {
+			return ENTRY_BYTES + (long) tree.count() * NODE_BYTES;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the nodes of a parse as a stream of enter and exit {@link Event}s,
+ * in the order of the input.
+ *
+ * The input is read in chunks and parsed by a {@link PushParser} as far as
+ * needed to satisfy the demand. A node is entered once backtracking can no
+ * longer remove it and exited once it is done. While there is no demand the
+ * parse pauses, so a slow subscriber does not cause input to be read or the
+ * tree to be built ahead of it.
+ *
+ * Events are emitted by the thread calling {@link Flow.Subscription#request(long)}.
+ * There can be only one subscriber as the input is read once.
+ *
+ * @author jan
+ */
+public final class ParseEvents implements Flow.Publisher<ParseEvents.Event> {
+
+	/**
+	 * Entering or exiting a node. The end of a node is not known when it is
+	 * entered, it is -1 for enter events.
+	 */
+	public static final class Event {
+
+		public final boolean enter;
+		public final int rule;
+		public final int start;
+		public final int end;
+
+		Event(boolean enter, int rule, int start, int end) {
+			super();
+			this.enter = enter;
+			this.rule = rule;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public String toString() {
+			return (enter ? "+" : "-")+rule+"["+start+":"+end+"]";
+		}
+	}
+
+	private final ReadableByteChannel in;
+	private final Grammar grammar;
+	private final String start;
+	private final int chunk;
+	private final AtomicInteger subscribed = new AtomicInteger();
+
+	public ParseEvents(ReadableByteChannel in, Grammar grammar, String start, int chunk) {
+		super();
+		if (chunk <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive: "+chunk);
+		}
+		this.in = in;
+		this.grammar = grammar;
+		this.start = start;
+		this.chunk = chunk;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Event> subscriber) {
+		if (subscribed.getAndIncrement() != 0) {
+			Emitter emitter = new Emitter(null, null, 0, subscriber);
+			subscriber.onSubscribe(emitter);
+			emitter.fail(new IllegalStateException("Only one subscriber allowed"));
+			return;
+		}
+		subscriber.onSubscribe(new Emitter(in, new PushParser(grammar, start), chunk, subscriber));
+	}
+
+	/**
+	 * Steps parsed before checking for nodes that became final.
+	 */
+	private static final int STEPS = 256;
+
+	/**
+	 * Parses and walks the tree emitting events as long as there is demand.
+	 */
+	private static final class Emitter implements Flow.Subscription {
+
+		private final ReadableByteChannel in;
+		private final PushParser parser;
+		private final ByteBuffer buffer;
+		private final Flow.Subscriber<? super Event> subscriber;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		private boolean done;
+
+		private boolean parsed;
+		private int stable;          // nodes that can be entered
+		private int node;            // next node to enter
+		private int[] open = new int[50]; // entered nodes not yet exited
+		private int top = -1;
+
+		Emitter(ReadableByteChannel in, PushParser parser, int chunk, Flow.Subscriber<? super Event> subscriber) {
+			super();
+			this.in = in;
+			this.parser = parser;
+			this.buffer = ByteBuffer.allocate(chunk);
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0L) {
+				fail(new IllegalArgumentException("Demand must be positive: "+n));
+				return;
+			}
+			long r;
+			do {
+				r = requested.get();
+			} while (!requested.compareAndSet(r, r + n < 0L ? Long.MAX_VALUE : r + n));
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		void fail(Throwable error) {
+			if (!cancelled) {
+				cancelled = true;
+				subscriber.onError(error);
+			}
+		}
+
+		/**
+		 * Only one thread emits, a request during emission is picked up by the
+		 * loop of the emitting thread.
+		 */
+		private void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				while (!cancelled && !done && requested.get() > 0L) {
+					final Event e;
+					try {
+						e = next();
+					} catch (Exception ex) {
+						fail(ex);
+						break;
+					}
+					if (e == null) {
+						done = true;
+						subscriber.onComplete();
+					} else {
+						subscriber.onNext(e);
+						if (requested.get() != Long.MAX_VALUE) {
+							requested.decrementAndGet();
+						}
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		/**
+		 * @return the next event or null if the input is parsed completely
+		 */
+		private Event next() throws IOException {
+			final ParseTree tree = parser.tree();
+			while (true) {
+				if (top >= 0 && isDone(tree, open[top]) && (node >= tree.count() || tree.level(node) <= tree.level(open[top]))) {
+					final int exited = open[top--];
+					return new Event(false, tree.id(exited), tree.start(exited), tree.end(exited));
+				}
+				if (node < stable) {
+					if (++top == open.length) {
+						open = Arrays.copyOf(open, open.length * 2);
+					}
+					open[top] = node;
+					final int entered = node++;
+					return new Event(true, tree.id(entered), tree.start(entered), -1);
+				}
+				if (parsed) {
+					final int end = parser.result();
+					final ByteBuffer input = parser.input();
+					if (end < 0 || end < input.limit()) {
+						throw new ParseException(input, tree.end(), end < 0 ? -end-1 : end, tree);
+					}
+					return null;
+				}
+				parse();
+			}
+		}
+
+		private void parse() throws IOException {
+			final int state = parser.resume(STEPS);
+			if (state == PushParser.SUSPENDED) {
+				buffer.clear();
+				if (in.read(buffer) < 0) {
+					parser.endInput();
+				} else {
+					buffer.flip();
+					parser.add(buffer);
+				}
+			}
+			parsed = state == PushParser.DONE;
+			stable = parser.stable();
+		}
+
+		private static boolean isDone(ParseTree tree, int index) {
+			final int level = tree.level(index);
+			return level > tree.openLevel() || tree.openNode(level) != index;
+		}
+	}
+}
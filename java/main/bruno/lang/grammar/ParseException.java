@@ -22,10 +22,14 @@ public final class ParseException extends RuntimeException {
 	@Override
 	public String toString() {
 		int pos = Math.abs(errorPosition);
-		String msg = "Failed to parse at "+pos+":";
+		LineIndex lines = LineIndex.of(input);
+		int line = lines.line(pos);
+		String msg = "Failed to parse at "+pos+" (line "+(line+1)+", column "+(pos-lines.start(line)+1)+"):";
 		System.err.println(msg);
-		ParseTree debug = tree.debug();
-		new Print.ParseTreePrinter(System.err).print(new IndexOverlayedFile(input, debug));
+		if (tree != null) { // not known when a binder rejects a node
+			ParseTree debug = tree.debug();
+			new Print.ParseTreePrinter(System.err).print(new IndexOverlayedFile(input, debug));
+		}
 		input.position(pos);
 		//FIXME what if end of file...
 		byte[] x = new byte[Math.min(60, input.limit()-pos)];
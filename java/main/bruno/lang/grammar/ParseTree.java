@@ -1,7 +1,10 @@
 package bruno.lang.grammar;
 
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import bruno.lang.grammar.Grammar.Rule;
 
@@ -16,10 +19,35 @@ import bruno.lang.grammar.Grammar.Rule;
  */
 public final class ParseTree {
 
-	private final Rule[] rules;
-	private final int[] levels;
-	private final int[] starts;
-	private final int[] ends;
+	/**
+	 * Receives the segments of a tree in sequential form, see
+	 * {@link ParseTree#sequential(Segments)}.
+	 */
+	public interface Segments {
+
+		/**
+		 * @param level the level of the node, negated if the segment is the
+		 *        part of a node before, between or after its child nodes.
+		 */
+		void segment(Rule rule, int level, int start, int end);
+	}
+
+	private int[] keys;
+	private int[] levels;
+	private int[] starts;
+	private int[] ends;
+	/**
+	 * The rules by key as far as known to the tree. A tree made for a grammar
+	 * knows all of its rules, other rules are learned when first pushed.
+	 */
+	private Rule[] rules;
+	private int known; // number of keys used in rules, the rest is free
+	private Map<Rule, Integer> learned; // keys by rule, made when first needed
+	/**
+	 * Optional: all that is not needed to just build the tree, null if none
+	 * of it is used.
+	 */
+	private Features features;
 	
 	private final int[] indexStack = new int[50];
 	
@@ -27,16 +55,31 @@ public final class ParseTree {
 	private int top = -1;
 	
 	public ParseTree(int nodes) {
+		this(new Rule[1], nodes);
+	}
+
+	public ParseTree(Grammar grammar, int nodes) {
+		this(grammar.keyTable(), nodes);
+	}
+
+	/**
+	 * @param rules the rules by key, not changed by the tree
+	 */
+	ParseTree(Rule[] rules, int nodes) {
 		super();
-		this.rules = new Rule[nodes];
+		this.rules = rules;
+		this.known = rules.length;
+		this.keys = new int[nodes];
 		this.starts = new int[nodes];
 		this.ends = new int[nodes];
 		this.levels = new int[nodes];
 	}
 	
-	private ParseTree(Rule[] rules, int[] starts, int[] ends, int[] levels,	int level, int top) {
+	private ParseTree(Rule[] rules, int[] keys, int[] starts, int[] ends, int[] levels, int level, int top) {
 		super();
 		this.rules = rules;
+		this.known = rules.length;
+		this.keys = keys;
 		this.starts = starts;
 		this.ends = ends;
 		this.levels = levels;
@@ -45,13 +88,67 @@ public final class ParseTree {
 	}
 
 	public void push(Rule rule, int start) {
-		starts[++top] = start;
+		if (features != null) {
+			features.push(top+1);
+		}
+		final int key = key(rule);
+		if (++top == keys.length) {
+			grow();
+		}
+		starts[top] = start;
 		ends[top] = start;
-		rules[top] = rule;
+		keys[top] = key;
 		level++;
 		levels[top] = level;
 		indexStack[level] = top;
 	}
+
+	private int key(Rule rule) {
+		final int key = rule.key;
+		if (key > 0 && key < known && rules[key] == rule) {
+			return key;
+		}
+		return learn(rule);
+	}
+
+	/**
+	 * Doubles the capacity, when the number of nodes is not known in advance.
+	 */
+	private void grow() {
+		final int n = Math.max(16, keys.length * 2);
+		keys = Arrays.copyOf(keys, n);
+		levels = Arrays.copyOf(levels, n);
+		starts = Arrays.copyOf(starts, n);
+		ends = Arrays.copyOf(ends, n);
+		if (features != null) {
+			features.grow(n);
+		}
+	}
+
+	/**
+	 * Rules not part of the tree's grammar get a key of the tree. A table
+	 * given to the tree or shared by it (see {@link #rules()}) has no free
+	 * keys, it is copied before a rule is added so it never changes.
+	 */
+	private int learn(Rule rule) {
+		if (learned == null) {
+			learned = new IdentityHashMap<>();
+			for (int key = 1; key < known; key++) {
+				learned.put(rules[key], key);
+			}
+		}
+		final Integer learnedKey = learned.get(rule);
+		if (learnedKey != null) {
+			return learnedKey;
+		}
+		final int key = this.known++;
+		if (key == rules.length) {
+			rules = Arrays.copyOf(rules, key * 2);
+		}
+		rules[key] = rule;
+		learned.put(rule, key);
+		return key;
+	}
 	
 	public int end(int index) {
 		return ends[index];
@@ -66,7 +163,21 @@ public final class ParseTree {
 	}
 	
 	public Rule rule(int index) {
-		return rules[index];
+		return rules[keys[index]];
+	}
+
+	/**
+	 * @return the id of the node's rule, see {@link Grammar#id(String)}
+	 */
+	public int id(int index) {
+		return rules[keys[index]].id;
+	}
+
+	/**
+	 * @return the key of the node's rule in {@link #rules()}
+	 */
+	int key(int index) {
+		return keys[index];
 	}
 	
 	public int end() {
@@ -78,19 +189,259 @@ public final class ParseTree {
 	}
 
 	public void pop() {
+		if (features != null) {
+			features.modify();
+		}
+		final int removed = top;
 		top = indexStack[level]-1;
 		level--;
+		if (features != null) {
+			features.removed(top, removed, starts[top+1]);
+		}
 	}
 
 	public void done(int end) {
+		if (features != null) {
+			features.modify();
+		}
 		ends[indexStack[level]] = end;
 		level--;
 	}
+
+	/**
+	 * Same as {@link #done(int)} but also interns the text of the node if its
+	 * rule is interned by the {@link Symbols} used by this tree.
+	 */
+	public void done(int end, ByteBuffer input) {
+		final int index = indexStack[level];
+		if (features != null) {
+			features.modify();
+			ends[index] = end;
+			level--;
+			top = features.done(this, index, top, input);
+			return;
+		}
+		ends[index] = end;
+		level--;
+	}
+
+	/**
+	 * Interns the texts of nodes of the rules selected by the given symbols
+	 * when nodes are done.
+	 */
+	public ParseTree intern(Symbols symbols) {
+		final Features f = features();
+		f.symbols = symbols;
+		f.symbolIds = new int[keys.length];
+		return this;
+	}
+
+	public Symbols symbols() {
+		return features == null ? null : features.symbols;
+	}
+
+	/**
+	 * Nodes of the rules deferred are not parsed but matched to their closing
+	 * bracket and added without child nodes, see {@link DeferredTree}.
+	 */
+	public ParseTree defer(Deferred deferred) {
+		features().deferred = deferred;
+		return this;
+	}
+
+	Deferred deferred() {
+		return features == null ? null : features.deferred;
+	}
+
+	/**
+	 * Binds the value of each node when it is done. The child nodes are then
+	 * removed so that the tree only holds the nodes being parsed and the
+	 * values of their done child nodes. Nodes (and values) of alternatives
+	 * that did not match are removed as usual.
+	 */
+	public ParseTree bind(Binder binder) {
+		final Features f = features();
+		f.binder = binder;
+		f.values = new Object[keys.length];
+		return this;
+	}
+
+	/**
+	 * Records checkpoints while parsing, see {@link Checkpoints}.
+	 */
+	public ParseTree checkpoint(Checkpoints checkpoints) {
+		features().checkpoints = checkpoints;
+		return this;
+	}
+
+	Checkpoints checkpoints() {
+		return features == null ? null : features.checkpoints;
+	}
+
+	/**
+	 * Splices in the element ranges where the parser reaches them, see
+	 * {@link DeferredTree}.
+	 */
+	ParseTree splice(DeferredTree.Ranges ranges) {
+		features().ranges = ranges;
+		return this;
+	}
+
+	DeferredTree.Ranges ranges() {
+		return features == null ? null : features.ranges;
+	}
+
+	private Features features() {
+		if (features == null) {
+			features = new Features();
+		}
+		features.modify();
+		return features;
+	}
+
+	/**
+	 * @return the level of the innermost node not yet done or -1
+	 */
+	int openLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the index of the node not yet done at the given level
+	 */
+	int openNode(int level) {
+		return indexStack[level];
+	}
+
+	/**
+	 * @return the value bound for the node, see {@link #bind(Binder)}
+	 */
+	public Object value(int index) {
+		return features == null || features.values == null ? null : features.values[index];
+	}
+
+	/**
+	 * @return the symbol id of the node's text or 0 if it is not interned
+	 */
+	public int symbol(int index) {
+		return features == null || features.symbolIds == null ? 0 : features.symbolIds[index];
+	}
 	
+	/**
+	 * Removes all nodes so the tree can be reused.
+	 */
+	public void clear() {
+		if (features != null) {
+			features.modify();
+		}
+		final int removed = top;
+		top = -1;
+		level = -1;
+		if (features != null) {
+			features.removed(top, removed, -1);
+		}
+	}
+
 	public void erase(int position) {
-		while (ends[top] > position) {
+		if (features != null) {
+			features.modify();
+		}
+		final int removed = top;
+		while (top >= 0 && ends[top] > position) {
 			top--;
 		}
+		if (features != null) {
+			features.removed(top, removed, position);
+		}
+	}
+
+	/**
+	 * The optional parts of a tree, kept apart so that a tree not using any of
+	 * them just checks for null when nodes are added or removed.
+	 */
+	private static final class Features {
+
+		/**
+		 * A frozen tree is shared and must not change, see {@link #frozen()}.
+		 */
+		boolean frozen;
+		/**
+		 * The symbol ids of the texts of nodes of interned rules.
+		 */
+		Symbols symbols;
+		int[] symbolIds;
+		/**
+		 * The rules that are not parsed but just bracket matched.
+		 */
+		Deferred deferred;
+		/**
+		 * Makes values of done nodes replacing their child nodes.
+		 */
+		Binder binder;
+		Object[] values;
+		/**
+		 * Positions where parsing can be resumed.
+		 */
+		Checkpoints checkpoints;
+		/**
+		 * Element ranges parsed by other tasks.
+		 */
+		DeferredTree.Ranges ranges;
+
+		Features() {
+			super();
+		}
+
+		void modify() {
+			if (frozen) {
+				throw new IllegalStateException("Tree is frozen");
+			}
+		}
+
+		void push(int index) {
+			modify();
+			if (symbolIds != null && index < symbolIds.length) {
+				symbolIds[index] = 0; // the slot might have been used by an erased node
+			}
+		}
+
+		void grow(int n) {
+			if (symbolIds != null) {
+				symbolIds = Arrays.copyOf(symbolIds, n);
+			}
+			if (values != null) {
+				values = Arrays.copyOf(values, n);
+			}
+		}
+
+		/**
+		 * @return the new top, the node itself if its child nodes are replaced
+		 *         by its value
+		 */
+		int done(ParseTree tree, int index, int top, ByteBuffer input) {
+			if (symbols != null && symbols.interns(tree.id(index))) {
+				symbolIds[index] = symbols.intern(input, tree.starts[index], tree.ends[index]);
+			}
+			if (binder == null) {
+				return top;
+			}
+			values[index] = binder.bind(tree.rule(index), input, tree.starts[index], tree.ends[index], values, index+1, top+1);
+			Arrays.fill(values, index+1, top+1, null);
+			return index;
+		}
+
+		/**
+		 * Drops the values of the nodes after the top up to the removed index
+		 * so they can be collected and the checkpoints after them.
+		 */
+		void removed(int top, int removed, int position) {
+			if (values != null && removed > top) {
+				Arrays.fill(values, top+1, removed+1, null);
+			}
+			if (checkpoints != null) {
+				checkpoints.truncate(top+1, position);
+			}
+		}
 	}
 
 	// ------------------------------------------------------------------------
@@ -122,7 +473,7 @@ public final class ParseTree {
 	private void toString(StringBuilder b, String indent, int index) {
 		char[] ind = new char[Math.abs(levels[index])];
 		Arrays.fill(ind, ' ');
-		b.append(String.format("%4s ", index)).append(ind).append(rules[index].name).append(' ').append(starts[index]).append(':').append(ends[index]).append('\n');
+		b.append(String.format("%4s ", index)).append(ind).append(rule(index).name).append(' ').append(starts[index]).append(':').append(ends[index]).append('\n');
 	}
 	
 	/*
@@ -149,9 +500,7 @@ public final class ParseTree {
 	}
 	
 	public ParseTree debug() {
-		int t = 0;
-		while (rules[t] != null) { t++; }
-		return new ParseTree(rules, starts, ends, levels, 0, t-1);
+		return new ParseTree(rules(), keys, starts, ends, levels, 0, top);
 	}
 
 	public boolean isSequential() {
@@ -162,39 +511,125 @@ public final class ParseTree {
 		if (isSequential()) {
 			return this;
 		}
-		ParseTree l = new ParseTree(rules.length);
-		sequential(l, 0);
+		final ParseTree l = new ParseTree(rules(), keys.length);
+		sequential(new Segments() {
+
+			@Override
+			public void segment(Rule rule, int level, int start, int end) {
+				l.append(rule, level, start, end);
+			}
+		});
 		return l;
 	}
-	
-	private int sequential(ParseTree dest, final int index) {
-		int i = index;
-		final int level = level(i);
-		final int nextLevel = level+1; // the level we are looking for
+
+	/**
+	 * Visits the leaf nodes and the parts of nodes not covered by their child
+	 * nodes (gaps) in the order of the input. This is the same sequence of
+	 * segments {@link #sequential()} creates a tree of but without creating it.
+	 * The parents of the current node are kept on an explicit stack so deep
+	 * trees do not overflow the call stack.
+	 */
+	public void sequential(Segments segments) {
 		final int count = count();
-		i++;
-		if (i >= count || level(i) <= level) {
-			dest.sequentialPush(rule(index), level, start(index), end(index));
-			return i;
-		}
-		int start = start(index);
-		while (i < count && level(i) == nextLevel) {
-			int s = start(i);
-			if (s > start) {
-				dest.sequentialPush(rule(index), -level(index), start, s);
-			}
-			i = sequential(dest, i);
-			start = dest.ends[dest.top];
+		if (count == 0) {
+			return;
 		}
-		int end = end(index);
-		if (end > start) {
-			dest.sequentialPush(rule(index), -level, start, end);
+		if (isSequential()) {
+			for (int i = 0; i < count; i++) {
+				segments.segment(rule(i), levels[i], starts[i], ends[i]);
+			}
+			return;
 		}
-		return i;
+		int[] nodes = new int[50];
+		int[] gaps = new int[50]; // start of the next gap of the node
+		int top = -1;
+		int last = 0; // end of the last segment
+		int i = 0;
+		do {
+			if (i+1 >= count || levels[i+1] <= levels[i]) { // leaf
+				segments.segment(rule(i), levels[i], starts[i], ends[i]);
+				last = ends[i];
+				if (top >= 0) {
+					gaps[top] = last;
+				}
+			} else {
+				if (++top >= nodes.length) {
+					nodes = Arrays.copyOf(nodes, nodes.length * 2);
+					gaps = Arrays.copyOf(gaps, gaps.length * 2);
+				}
+				nodes[top] = i;
+				gaps[top] = starts[i];
+			}
+			i++;
+			while (top >= 0) {
+				final int n = nodes[top];
+				if (i < count && levels[i] == levels[n]+1) { // next child
+					if (starts[i] > gaps[top]) {
+						segments.segment(rule(n), -levels[n], gaps[top], starts[i]);
+					}
+					break;
+				}
+				if (ends[n] > gaps[top]) {
+					segments.segment(rule(n), -levels[n], gaps[top], ends[n]);
+					last = ends[n];
+				}
+				if (--top >= 0) {
+					gaps[top] = last;
+				}
+			}
+		} while (top >= 0);
 	}
 	
-	private void sequentialPush(Rule rule, int level, int start, int end) {
-		rules[++top] = rule;
+	/**
+	 * @return a copy of this tree that cannot be changed so it can be shared
+	 *         by threads
+	 */
+	public ParseTree frozen() {
+		if (isFrozen()) {
+			return this;
+		}
+		ParseTree tree = copy();
+		tree.features = new Features();
+		tree.features.frozen = true;
+		return tree;
+	}
+
+	public boolean isFrozen() {
+		return features != null && features.frozen;
+	}
+
+	/**
+	 * @return a copy of this tree just as large as needed for its nodes (and
+	 *         without interned symbols)
+	 */
+	public ParseTree copy() {
+		final int c = count();
+		return new ParseTree(rules(), Arrays.copyOf(keys, c), Arrays.copyOf(starts, c), Arrays.copyOf(ends, c), Arrays.copyOf(levels, c), 0, c-1);
+	}
+
+	/**
+	 * @return the rules by key as known to this tree, later known rules are
+	 *         added to a copy
+	 */
+	Rule[] rules() {
+		if (known < rules.length) {
+			rules = Arrays.copyOf(rules, known); // shared from now on
+		}
+		return rules;
+	}
+
+	/**
+	 * Adds a node after the last node, used to build trees from other forms.
+	 */
+	void append(Rule rule, int level, int start, int end) {
+		if (features != null) {
+			features.push(top+1);
+		}
+		final int key = key(rule);
+		if (++top == keys.length) {
+			grow();
+		}
+		keys[top] = key;
 		levels[top] = level;
 		starts[top] = start;
 		ends[top] = end;
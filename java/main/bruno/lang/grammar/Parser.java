@@ -26,6 +26,13 @@ public final class Parser {
 	public static int parse(Rule start, ParseTree target, ByteBuffer input) {
 		return parseRule(start, target, input, 0);
 	}
+
+	/**
+	 * Parses the rule starting at the given position.
+	 */
+	public static int parse(Rule rule, ParseTree target, ByteBuffer input, int p0) {
+		return parseRule(rule, target, input, p0);
+	}
 	
 	/**
 	 * In contrast to {@link #parseRule(Rule, ParseTree, ByteBuffer, int)} (that
@@ -84,10 +91,19 @@ public final class Parser {
 	}
 
 	private static int parseCapture(Rule rule, ParseTree tree, ByteBuffer input, int p0) {
+		final Deferred deferred = tree.deferred();
+		if (deferred != null && deferred.defers(rule.id)) {
+			int pN = deferred.skip(rule.id, input, p0);
+			if (pN > p0) {
+				tree.push(rule, p0);
+				tree.done(pN, input);
+			}
+			return pN;
+		}
 		tree.push(rule, p0);
 		int pN = parseRule(rule.elements[0], tree, input, p0);
 		if (pN > p0) {
-			tree.done(pN);
+			tree.done(pN, input);
 		} else {
 			tree.pop();
 		}
@@ -138,6 +154,8 @@ public final class Parser {
 	}
 
 	private static int parseRepetition(Rule rule, ParseTree tree, ByteBuffer input, int p0) {
+		final Checkpoints checkpoints = tree.checkpoints();
+		final DeferredTree.Ranges ranges = tree.ranges();
 		int p = p0;
 		int c = 0;
 		while (c < rule.occur.max) {
@@ -151,6 +169,16 @@ public final class Parser {
 			} else {
 				p = pN;
 				c++;
+				if (checkpoints != null && rule.occur.max > 1) {
+					checkpoints.reached(rule.elements[0], tree, p);
+				}
+				if (ranges != null && rule == ranges.repetition) {
+					final int n = ranges.splice(tree, p, rule.occur.max - c);
+					if (n > 0) {
+						c += n;
+						p = ranges.end;
+					}
+				}
 			}
 		}
 		return p;
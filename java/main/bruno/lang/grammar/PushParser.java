@@ -0,0 +1,557 @@
+package bruno.lang.grammar;
+
+import static bruno.lang.grammar.Grammar.Whitespace.MAY_BE_INDENT;
+import static bruno.lang.grammar.Grammar.Whitespace.MAY_BE_WS;
+import static java.lang.Character.isWhitespace;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import bruno.lang.grammar.Grammar.Rule;
+import bruno.lang.grammar.Grammar.RuleType;
+
+/**
+ * A {@link Parser} that is given the input in chunks as they arrive.
+ *
+ * Instead of recursion the rules being parsed are kept as frames on a stack
+ * in the heap. When a terminal needs input beyond what has been fed so far
+ * the parser suspends and returns to the caller, the next
+ * {@link #feed(ByteBuffer)} continues from the suspended frame. So no thread
+ * is blocked while waiting for input.
+ *
+ * A terminal only gives a result once it is the same as on the complete
+ * input, so the tree and result are the same as those of
+ * {@link Parser#parse(Rule, ParseTree, ByteBuffer)}.
+ *
+ * <pre>
+ * PushParser p = new PushParser(grammar, "json");
+ * p.feed(chunk); ... p.feed(chunk);
+ * int end = p.end();
+ * </pre>
+ *
+ * The chunks are copied, all input fed is kept since the tree refers to it.
+ *
+ * @author jan
+ */
+public final class PushParser {
+
+	private final ParseTree tree;
+	private ByteBuffer input;
+	private boolean ended;
+
+	private Frame[] frames = new Frame[32];
+	private int top = -1;
+	private int result;
+	private final Map<Rule, Boolean> mayFail = new IdentityHashMap<>();
+
+	public PushParser(Grammar grammar, String start) {
+		this(grammar.rule(start.intern()), new ParseTree(grammar, 512));
+	}
+
+	public PushParser(Rule start, ParseTree tree) {
+		super();
+		this.tree = tree;
+		this.input = ByteBuffer.allocate(1024);
+		this.input.limit(0);
+		call(start, 0);
+	}
+
+	/**
+	 * Adds the chunk to the input and parses as far as possible.
+	 *
+	 * @return true if the parse is done (more input does not change it)
+	 * @throws ParseException if a decided sequence does not match
+	 */
+	public boolean feed(ByteBuffer chunk) {
+		add(chunk);
+		return run(Integer.MAX_VALUE) == DONE;
+	}
+
+	/**
+	 * Adds the chunk to the input without parsing, see {@link #resume(int)}.
+	 */
+	void add(ByteBuffer chunk) {
+		if (ended) {
+			throw new IllegalStateException("Input already ended");
+		}
+		final int length = input.limit();
+		final int n = chunk.remaining();
+		if (length + n > input.capacity()) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(input.capacity() * 2, length + n));
+			input.position(0);
+			grown.put(input);
+			input = grown;
+		}
+		input.limit(length + n);
+		input.position(length);
+		input.put(chunk.duplicate());
+		input.position(0);
+	}
+
+	/**
+	 * Marks the end of input and completes the parse.
+	 *
+	 * @return the end position of the start rule or a mismatch (negative)
+	 *         just like {@link Parser#parse(Rule, ParseTree, ByteBuffer)}
+	 * @throws ParseException if a decided sequence does not match
+	 */
+	public int end() {
+		ended = true;
+		run(Integer.MAX_VALUE);
+		return result;
+	}
+
+	/**
+	 * Marks the end of input without parsing, see {@link #resume(int)}.
+	 */
+	void endInput() {
+		ended = true;
+	}
+
+	/**
+	 * Parses at most the given number of steps (rules entered or returned to).
+	 *
+	 * @return {@link #DONE}, {@link #SUSPENDED} if more input is needed or
+	 *         {@link #PAUSED} if the steps are used up
+	 * @throws ParseException if a decided sequence does not match
+	 */
+	int resume(int steps) {
+		return run(steps);
+	}
+
+	/**
+	 * @return the end position of the start rule or a mismatch (negative)
+	 *         once the parse is done
+	 */
+	int result() {
+		return result;
+	}
+
+	/**
+	 * A node is final once none of the rules being parsed can fail and remove
+	 * it by backtracking. A rule that just returned a mismatch fails, a rule
+	 * that was not entered yet might fail if it can fail at all. A capture
+	 * fails if its rule fails, an alternative if the current alternative
+	 * fails and all the later ones can fail, a sequence if it is not decided
+	 * yet and its current or a later element (before a decision) fails and a
+	 * repetition if it fails before its minimum count is reached. A failing
+	 * rule might remove all nodes added since it was entered.
+	 *
+	 * @return the number of nodes from the start of the tree that are final
+	 */
+	int stable() {
+		int limit = tree.count();
+		boolean fails = false; // of the rule called by the frame
+		for (int t = top; t >= 0; t--) {
+			final Frame f = frames[t];
+			if (t == top) {
+				fails = f.called ? result < 0 : f.scan || mayFail(f.rule);
+			} else {
+				fails = fails(f, fails);
+			}
+			if (fails) {
+				limit = Math.min(limit, f.nodes);
+			}
+		}
+		return limit;
+	}
+
+	private boolean fails(Frame f, boolean called) {
+		if (f.scan) {
+			return true;
+		}
+		final Rule rule = f.rule;
+		final Rule[] elements = rule.elements;
+		switch (rule.type) {
+		case CAPTURE:
+			return called;
+		case CASCADE:
+			for (int i = f.i; called && i < elements.length; i++) {
+				called = mayFail(elements[i]);
+			}
+			return called;
+		case SEQUENCE:
+			if (f.decided) {
+				return false;
+			}
+			if (called) {
+				return true;
+			}
+			for (int i = f.i; i < elements.length && elements[i].type != RuleType.DECISION; i++) {
+				if (mayFail(elements[i])) {
+					return true;
+				}
+			}
+			return false;
+		case REPETITION:
+			return f.i < rule.occur.min && (called || f.i+1 < rule.occur.min && mayFail(elements[0]));
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * @return false if the rule always matches (maybe nothing), true if it
+	 *         might not match (or it is not known)
+	 */
+	private boolean mayFail(Rule rule) {
+		final Boolean known = mayFail.get(rule);
+		if (known != null) {
+			return known;
+		}
+		mayFail.put(rule, Boolean.TRUE); // recursion
+		boolean fails;
+		switch (rule.type) {
+		case LITERAL:
+			fails = rule.literal.length > 0; break;
+		case WHITESPACE:
+			fails = rule.ws != MAY_BE_WS && rule.ws != MAY_BE_INDENT; break;
+		case DECISION:
+		case LOOKAHEAD:
+			fails = false; break;
+		case REPETITION:
+			fails = rule.occur.min > 0 && mayFail(rule.elements[0]); break;
+		case CAPTURE:
+			final Deferred deferred = tree.deferred();
+			fails = deferred != null && deferred.defers(rule.id) || mayFail(rule.elements[0]); break;
+		case CASCADE:
+			fails = true;
+			for (Rule e : rule.elements) {
+				fails &= mayFail(e);
+			}
+			break;
+		case SEQUENCE:
+			fails = false;
+			for (Rule e : rule.elements) {
+				if (e.type == RuleType.DECISION) {
+					break;
+				}
+				fails |= mayFail(e);
+			}
+			break;
+		default:
+			fails = true;
+		}
+		mayFail.put(rule, fails);
+		return fails;
+	}
+
+	/**
+	 * @return true if the parse is done (more input does not change it)
+	 */
+	public boolean isDone() {
+		return top < 0;
+	}
+
+	public ParseTree tree() {
+		return tree;
+	}
+
+	/**
+	 * @return the input fed so far
+	 */
+	public ByteBuffer input() {
+		return input;
+	}
+
+	/**
+	 * Used after a rule did not match at the end of the input read so far.
+	 *
+	 * @param like a tree of the rule's grammar
+	 * @return true if the mismatch depends on input after the limit, false if
+	 *         the rule does not match whatever follows
+	 */
+	static boolean incomplete(Rule rule, ParseTree like, ByteBuffer input, int p0) {
+		ByteBuffer rest = input.duplicate();
+		rest.position(p0);
+		try {
+			return !new PushParser(rule, new ParseTree(like.rules(), 64)).feed(rest);
+		} catch (ParseException e) {
+			return false;
+		}
+	}
+
+	static final int DONE = 1;
+	static final int SUSPENDED = 0;
+	static final int PAUSED = -1;
+
+	private int run(int steps) {
+		while (top >= 0) {
+			if (steps-- == 0) {
+				return PAUSED;
+			}
+			final Frame f = frames[top];
+			final Rule rule = f.rule;
+			final boolean back = f.called;
+			final int v = result;
+			f.called = false;
+			if (f.scan) {
+				if (back && v > 0) {
+					ret(f.p);
+					continue;
+				}
+				if (back) {
+					f.p++;
+				}
+				if (f.p >= input.limit()) {
+					if (!ended) {
+						return SUSPENDED;
+					}
+					ret(mismatch(input.limit()));
+					continue;
+				}
+				call(rule, f.p);
+				continue;
+			}
+			switch (rule.type) {
+			case LITERAL:
+			case CHARACTER_SET:
+			case WHITESPACE:
+				final int pN = terminal(rule, f.p0);
+				if (pN == NEED) {
+					return SUSPENDED;
+				}
+				ret(pN);
+				break;
+			case CAPTURE:
+				if (back) {
+					if (v > f.p0) {
+						tree.done(v, input);
+					} else {
+						tree.pop();
+					}
+					ret(v);
+					break;
+				}
+				final Deferred deferred = tree.deferred();
+				if (deferred != null && deferred.defers(rule.id)) {
+					final int pS = deferred.skip(rule.id, input, f.p0);
+					if (!ended && (pS == mismatch(input.limit()) || pS == mismatch(f.p0) && rule.elements[0].elements[0].literal.length > input.limit() - f.p0)) {
+						return SUSPENDED;
+					}
+					if (pS > f.p0) {
+						tree.push(rule, f.p0);
+						tree.done(pS, input);
+					}
+					ret(pS);
+					break;
+				}
+				tree.push(rule, f.p0);
+				call(rule.elements[0], f.p0);
+				break;
+			case CASCADE:
+				if (!back) {
+					f.i = 0;
+					f.p = mismatch(f.p0);
+				} else if (v >= 0) {
+					ret(v);
+					break;
+				} else {
+					f.p = Math.min(f.p, v);
+				}
+				if (f.i < rule.elements.length) {
+					call(rule.elements[f.i++], f.p0);
+				} else {
+					tree.erase(f.p0);
+					ret(f.p);
+				}
+				break;
+			case SEQUENCE:
+				sequence(f, rule, back, v);
+				break;
+			case REPETITION:
+				if (!back) {
+					f.i = 0;
+					f.p = f.p0;
+				} else if (v < 0) {
+					tree.erase(f.p);
+					ret(f.i < rule.occur.min ? v : f.p);
+					break;
+				} else {
+					f.p = v;
+					f.i++;
+				}
+				if (f.i < rule.occur.max) {
+					call(rule.elements[0], f.p);
+				} else {
+					ret(f.p);
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("`"+rule+"` has non-runtime type: "+rule.type);
+			}
+		}
+		return DONE;
+	}
+
+	private void sequence(Frame f, Rule rule, boolean back, int v) {
+		final Rule[] elements = rule.elements;
+		if (!back) {
+			f.i = 0;
+			f.p = f.p0;
+			f.pL = Integer.MAX_VALUE;
+			f.decided = false;
+		} else if (elements[f.i-1].type == RuleType.FILL) {
+			f.p = v;
+		} else if (v < 0) {
+			mismatch(f, v);
+			return;
+		} else {
+			f.p = v;
+		}
+		while (f.i < elements.length) {
+			final Rule r = elements[f.i++];
+			switch (r.type) {
+			case DECISION:
+				f.decided = true; break;
+			case LOOKAHEAD:
+				f.pL = f.p; break;
+			case FILL:
+				call(elements[f.i], f.p);
+				frames[top].scan = true;
+				return;
+			default:
+				if (f.p < 0) {
+					mismatch(f, f.p);
+				} else {
+					call(r, f.p);
+				}
+				return;
+			}
+		}
+		ret(Math.min(f.p, f.pL));
+	}
+
+	private void mismatch(Frame sequence, int pN) {
+		if (sequence.decided) {
+			tree.erase(sequence.p);
+			top = -1;
+			throw new ParseException(input, sequence.p, pN, tree);
+		}
+		tree.erase(sequence.p0);
+		ret(pN);
+	}
+
+	private void call(Rule rule, int p0) {
+		if (++top >= frames.length) {
+			frames = Arrays.copyOf(frames, frames.length * 2);
+		}
+		Frame f = frames[top];
+		if (f == null) {
+			f = new Frame();
+			frames[top] = f;
+		}
+		f.rule = rule;
+		f.p0 = p0;
+		f.p = p0;
+		f.nodes = tree.count();
+		f.called = false;
+		f.scan = false;
+	}
+
+	private void ret(int pN) {
+		result = pN;
+		if (--top >= 0) {
+			frames[top].called = true;
+		}
+	}
+
+	private static final int NEED = Integer.MIN_VALUE;
+
+	private static int mismatch(int position) {
+		return -position-1;
+	}
+
+	/**
+	 * @return the end of the terminal, a mismatch or {@link #NEED} if the
+	 *         result depends on input not yet fed
+	 */
+	private int terminal(Rule rule, int p0) {
+		final int pE = input.limit();
+		switch (rule.type) {
+		case LITERAL:
+			final byte[] literal = rule.literal;
+			int p = p0;
+			for (int i = 0; i < literal.length; i++) {
+				if (p >= pE)
+					return ended ? mismatch(pE) : NEED;
+				if (input.get(p) != literal[i])
+					return mismatch(p);
+				p++;
+			}
+			return p;
+		case CHARACTER_SET:
+			if (p0 >= pE)
+				return ended ? mismatch(p0) : NEED;
+			final int n = UTF8.byteCount(input, p0);
+			if (p0 + n > pE)
+				return ended ? mismatch(p0) : NEED;
+			return rule.charset.contains(input, p0) ? p0 + n : mismatch(p0);
+		default:
+			return whitespace(rule, p0);
+		}
+	}
+
+	private int whitespace(Rule rule, int p0) {
+		final int pE = input.limit();
+		int p = p0;
+		switch (rule.ws) {
+		default:
+		case MAY_BE_INDENT:
+		case MUST_BE_INDENT:
+			while (p < pE && isIndent(input.get(p))) { p++; }
+			if (p >= pE && !ended)
+				return NEED;
+			return p > p0 || rule.ws == MAY_BE_INDENT ? p : mismatch(p0);
+		case MAY_BE_WS:
+		case MUST_BE_WS:
+			while (p < pE && isWhitespace(input.get(p))) { p++; }
+			if (p >= pE && !ended)
+				return NEED;
+			return p > p0 || rule.ws == MAY_BE_WS ? p : mismatch(p0);
+		case MUST_BE_WRAP:
+			while (p < pE && isIndent(input.get(p))) { p++; }
+			if (p >= pE)
+				return ended ? p : NEED; // end of input is also treated as wrap
+			final int w = p;
+			while (p < pE && isWrap(input.get(p))) { p++; }
+			if (w == p) {
+				return mismatch(p0);
+			}
+			while (p < pE && isIndent(input.get(p))) { p++; }
+			if (p >= pE && !ended)
+				return NEED;
+			return p;
+		}
+	}
+
+	private static boolean isIndent(int b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static boolean isWrap(int b) {
+		return b == '\n' || b == '\r';
+	}
+
+	/**
+	 * A rule being parsed.
+	 */
+	private static final class Frame {
+
+		Rule rule;
+		int p0;
+		int p;       // current position (sequence, repetition, scan) or lowest mismatch (cascade)
+		int i;       // next element (sequence, cascade) or count (repetition)
+		int pL;      // lookahead end (sequence)
+		boolean decided;
+		boolean scan; // searching forward for the rule (fill)
+		boolean called; // a rule called by this frame has returned
+		int nodes;   // in the tree when the frame was entered
+
+		Frame() {
+			super();
+		}
+	}
+}
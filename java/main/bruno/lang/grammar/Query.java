@@ -0,0 +1,395 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of selectors compiled to a plan that is matched against a
+ * {@link ParseTree} in a single pass over its nodes.
+ *
+ * <pre>
+ * selector  = '>'? step (axis step)*
+ * axis      = ' ' (descendant) | '>' (child)
+ * step      = (name | '*') predicate*
+ * predicate = '[' name? op text ']'
+ * op        = '=' | '^=' | '$=' | '*=' (equals, starts with, ends with, contains)
+ * text      = '...' | "..."
+ * </pre>
+ *
+ * A predicate without a name tests the text of the node itself, with a name
+ * the text of a direct child node of that rule. Several selectors are
+ * separated by comma. A selector starting with <code>&gt;</code> only starts
+ * matching at root nodes.
+ *
+ * Example: <code>object member[name='"title"'] > json</code>
+ *
+ * Names are resolved to the ids of the grammar's rules when compiling so that
+ * matching just compares ids.
+ *
+ * While walking the nodes the steps matched by each selector are kept as a
+ * bit-set per level, the steps matched by a node itself and those matched by
+ * the node or any of its parents. A node matches a step if it matches its
+ * name and predicates and the parent level has the previous step matched
+ * (child axis) or any of the parents levels has (descendant axis). Therefore
+ * a selector can have up to 64 steps. Predicates on child nodes jump from
+ * child to child using a {@link NodeIndex} so the pass stays linear.
+ *
+ * @author jan
+ */
+public final class Query {
+
+	/**
+	 * Receives the nodes matching a selector.
+	 */
+	public interface Matches {
+
+		/**
+		 * @param selector the index of the selector (in order of compilation)
+		 * @param index the index of the matching node
+		 */
+		void match(int selector, int index);
+	}
+
+	private static final int EQUALS = 0;
+	private static final int STARTS_WITH = 1;
+	private static final int ENDS_WITH = 2;
+	private static final int CONTAINS = 3;
+
+	/**
+	 * @throws java.util.NoSuchElementException if a selector uses a name that
+	 *         is not a rule of the grammar
+	 */
+	public static Query compile(Grammar grammar, String... selectors) {
+		Compiler c = new Compiler(grammar);
+		for (String selector : selectors) {
+			c.selectors(selector);
+		}
+		return c.query();
+	}
+
+	private final int[] selectors; // index of first step of each selector (and end)
+	private final String[] names;  // null matches any rule
+	private final int[] ids;       // 0 matches any rule
+	private final boolean[] childAxis;
+	private final int[] predicates; // index of first predicate of each step (and end)
+	private final String[] predicateNames; // null tests the node itself
+	private final int[] predicateIds;
+	private final int[] predicateOps;
+	private final byte[][] predicateTexts;
+	private final boolean childPredicates;
+
+	private Query(int[] selectors, String[] names, int[] ids, boolean[] childAxis, int[] predicates, String[] predicateNames, int[] predicateIds, int[] predicateOps, byte[][] predicateTexts) {
+		super();
+		this.selectors = selectors;
+		this.names = names;
+		this.ids = ids;
+		this.childAxis = childAxis;
+		this.predicates = predicates;
+		this.predicateNames = predicateNames;
+		this.predicateIds = predicateIds;
+		this.predicateOps = predicateOps;
+		this.predicateTexts = predicateTexts;
+		boolean child = false;
+		for (int id : predicateIds) {
+			child |= id != 0;
+		}
+		this.childPredicates = child;
+	}
+
+	public int selectors() {
+		return selectors.length-1;
+	}
+
+	public void run(IndexOverlayedFile file, Matches matches) {
+		run(file.indexOverlay, file.file, matches);
+	}
+
+	public void run(ParseTree tree, ByteBuffer input, Matches matches) {
+		final int s = selectors();
+		final int c = tree.count();
+		long[] exact = new long[s * 16];
+		long[] any = new long[s * 16];
+		final NodeIndex nodes = childPredicates ? NodeIndex.of(tree) : null;
+		for (int i = 0; i < c; i++) {
+			final int l = tree.level(i);
+			if ((l+1) * s > exact.length) {
+				exact = Arrays.copyOf(exact, exact.length * 2);
+				any = Arrays.copyOf(any, any.length * 2);
+			}
+			final int id = tree.id(i);
+			for (int k = 0; k < s; k++) {
+				final long parentExact = l == 0 ? 0L : exact[(l-1)*s+k];
+				final long parentAny = l == 0 ? 0L : any[(l-1)*s+k];
+				final int first = selectors[k];
+				final int last = selectors[k+1]-1;
+				long m = 0L;
+				for (int j = first; j <= last; j++) {
+					final int step = j - first;
+					boolean follows = step == 0
+							? !childAxis[j] || l == 0
+							: ((childAxis[j] ? parentExact : parentAny) & 1L << (step-1)) != 0L;
+					if (follows && (ids[j] == 0 || ids[j] == id) && test(j, tree, nodes, input, i)) {
+						m |= 1L << step;
+					}
+				}
+				exact[l*s+k] = m;
+				any[l*s+k] = parentAny | m;
+				if ((m & 1L << (last-first)) != 0L) {
+					matches.match(k, i);
+				}
+			}
+		}
+	}
+
+	private boolean test(int step, ParseTree tree, NodeIndex nodes, ByteBuffer input, int index) {
+		for (int p = predicates[step]; p < predicates[step+1]; p++) {
+			if (predicateIds[p] == 0) {
+				if (!test(p, input, tree.start(index), tree.end(index))) {
+					return false;
+				}
+			} else if (!testChild(p, tree, nodes, input, index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Only visits the direct child nodes, their subtrees are skipped.
+	 */
+	private boolean testChild(int p, ParseTree tree, NodeIndex nodes, ByteBuffer input, int index) {
+		final int end = nodes.next(index);
+		for (int i = index+1; i < end; i = nodes.next(i)) {
+			if (tree.id(i) == predicateIds[p] && test(p, input, tree.start(i), tree.end(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean test(int p, ByteBuffer input, int start, int end) {
+		final byte[] text = predicateTexts[p];
+		final int len = end - start;
+		switch (predicateOps[p]) {
+		case EQUALS:
+			return len == text.length && matchesAt(input, start, text);
+		case STARTS_WITH:
+			return len >= text.length && matchesAt(input, start, text);
+		case ENDS_WITH:
+			return len >= text.length && matchesAt(input, end-text.length, text);
+		default:
+			for (int i = start; i <= end-text.length; i++) {
+				if (matchesAt(input, i, text)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static boolean matchesAt(ByteBuffer input, int position, byte[] text) {
+		for (int i = 0; i < text.length; i++) {
+			if (input.get(position+i) != text[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		for (int k = 0; k < selectors(); k++) {
+			if (k > 0) {
+				b.append(", ");
+			}
+			for (int j = selectors[k]; j < selectors[k+1]; j++) {
+				if (childAxis[j]) {
+					b.append(j == selectors[k] ? "> " : " > ");
+				} else if (j > selectors[k]) {
+					b.append(' ');
+				}
+				b.append(names[j] == null ? "*" : names[j]);
+				for (int p = predicates[j]; p < predicates[j+1]; p++) {
+					b.append('[');
+					if (predicateNames[p] != null) {
+						b.append(predicateNames[p]);
+					}
+					b.append(predicateOps[p] == EQUALS ? "" : predicateOps[p] == STARTS_WITH ? "^" : predicateOps[p] == ENDS_WITH ? "$" : "*");
+					b.append("='").append(new String(predicateTexts[p], UTF8.CHARSET)).append("']");
+				}
+			}
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Parses selectors into the flat arrays of the plan.
+	 */
+	private static final class Compiler {
+
+		final Grammar grammar;
+		final List<Integer> selectors = new ArrayList<>();
+		final List<String> names = new ArrayList<>();
+		final List<Boolean> childAxis = new ArrayList<>();
+		final List<Integer> predicates = new ArrayList<>();
+		final List<String> predicateNames = new ArrayList<>();
+		final List<Integer> predicateOps = new ArrayList<>();
+		final List<byte[]> predicateTexts = new ArrayList<>();
+
+		String src;
+		int pos;
+
+		Compiler(Grammar grammar) {
+			super();
+			this.grammar = grammar;
+		}
+
+		void selectors(String selectors) {
+			this.src = selectors;
+			pos = 0;
+			skipSpaces();
+			while (true) {
+				final int first = names.size();
+				this.selectors.add(first);
+				boolean child = false;
+				if (peek() == '>') {
+					child = true;
+					pos++;
+					skipSpaces();
+				}
+				while (true) {
+					step(child);
+					boolean space = skipSpaces();
+					if (pos >= src.length() || peek() == ',') {
+						break;
+					}
+					if (peek() == '>') {
+						child = true;
+						pos++;
+						skipSpaces();
+					} else if (space) {
+						child = false;
+					} else {
+						illegal();
+					}
+				}
+				if (names.size() - first > 64) {
+					throw new IllegalArgumentException("Selector has more than 64 steps: "+src);
+				}
+				if (pos >= src.length()) {
+					return;
+				}
+				pos++; // the ,
+				skipSpaces();
+			}
+		}
+
+		private void step(boolean child) {
+			String name = peek() == '*' ? "*" : name();
+			if (name.isEmpty()) {
+				illegal();
+			}
+			if (name.equals("*")) {
+				pos++;
+				name = null;
+			}
+			names.add(name);
+			childAxis.add(child);
+			predicates.add(predicateNames.size());
+			while (peek() == '[') {
+				pos++;
+				String pname = name();
+				predicateNames.add(pname.isEmpty() ? null : pname);
+				int op = EQUALS;
+				switch (peek()) {
+				case '^': op = STARTS_WITH; pos++; break;
+				case '$': op = ENDS_WITH; pos++; break;
+				case '*': op = CONTAINS; pos++; break;
+				}
+				expect('=');
+				predicateOps.add(op);
+				char quote = peek();
+				if (quote != '\'' && quote != '"') {
+					illegal();
+				}
+				int end = src.indexOf(quote, ++pos);
+				if (end < 0) {
+					illegal();
+				}
+				predicateTexts.add(UTF8.bytes(src.substring(pos, end)));
+				pos = end+1;
+				expect(']');
+			}
+		}
+
+		private String name() {
+			int s = pos;
+			while (pos < src.length() && isName(src.charAt(pos))) {
+				pos++;
+			}
+			return src.substring(s, pos);
+		}
+
+		private static boolean isName(char c) {
+			return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_';
+		}
+
+		private boolean skipSpaces() {
+			int s = pos;
+			while (pos < src.length() && src.charAt(pos) == ' ') {
+				pos++;
+			}
+			return pos > s;
+		}
+
+		private char peek() {
+			return pos < src.length() ? src.charAt(pos) : 0;
+		}
+
+		private void expect(char c) {
+			if (peek() != c) {
+				illegal();
+			}
+			pos++;
+		}
+
+		private void illegal() {
+			throw new IllegalArgumentException("`"+(pos < src.length() ? src.charAt(pos) : "end")+"` is not valid in selector at position "+pos+": "+src);
+		}
+
+		Query query() {
+			final int steps = names.size();
+			int[] sel = new int[selectors.size()+1];
+			for (int i = 0; i < selectors.size(); i++) {
+				sel[i] = selectors.get(i);
+			}
+			sel[selectors.size()] = steps;
+			boolean[] child = new boolean[steps];
+			int[] pred = new int[steps+1];
+			for (int i = 0; i < steps; i++) {
+				child[i] = childAxis.get(i);
+				pred[i] = predicates.get(i);
+			}
+			pred[steps] = predicateNames.size();
+			int[] ids = new int[steps];
+			for (int i = 0; i < steps; i++) {
+				ids[i] = id(names.get(i));
+			}
+			int[] ops = new int[predicateOps.size()];
+			int[] pids = new int[ops.length];
+			for (int i = 0; i < ops.length; i++) {
+				ops[i] = predicateOps.get(i);
+				pids[i] = id(predicateNames.get(i));
+			}
+			return new Query(sel, names.toArray(new String[0]), ids, child, pred,
+					predicateNames.toArray(new String[0]), pids, ops, predicateTexts.toArray(new byte[0][]));
+		}
+
+		private int id(String name) {
+			return name == null ? 0 : grammar.id(name);
+		}
+	}
+}
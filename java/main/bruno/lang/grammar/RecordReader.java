@@ -0,0 +1,175 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Parses a sequence of records (for example the lines of NDJSON or a log
+ * file) read from a channel using a window of fixed size.
+ *
+ * Records are parsed back to back, whitespace between them is skipped. The
+ * input of a record is discarded once the next record is requested so the
+ * memory used does not depend on the size of the input, only the largest
+ * record has to fit into the window.
+ *
+ * A record is taken as complete when it ends before the end of the input read
+ * so far (or at the end of the input). So records are expected to be followed
+ * by whitespace or a separator that cannot continue the record. A record that
+ * does not match is only read further if the mismatch depends on input not
+ * read yet, otherwise it is invalid.
+ *
+ * The channel must be blocking, reading waits for input.
+ *
+ * <pre>
+ * RecordReader r = new RecordReader(channel, grammar, "json", 1 << 20);
+ * while (r.next()) { r.tree() ... r.input() ... r.offset() }
+ * </pre>
+ *
+ * @author jan
+ */
+public final class RecordReader {
+
+	/**
+	 * Receives the records of {@link RecordReader#forEach(Records)}.
+	 */
+	public interface Records {
+
+		/**
+		 * @param tree the tree of the record, its positions are in the input
+		 * @param input the window of the input, valid until the callback
+		 *        returns
+		 * @param offset the position in the channel of position 0 of the
+		 *        window
+		 */
+		void record(ParseTree tree, ByteBuffer input, long offset);
+	}
+
+	private final ReadableByteChannel in;
+	private final Rule record;
+	private final ByteBuffer window;
+	private final ParseTree tree;
+
+	private long offset; // of window position 0
+	private int pos;     // start of the next record
+	private boolean eof;
+	private long records;
+
+	/**
+	 * @throws IllegalArgumentException if the channel is non-blocking
+	 */
+	public RecordReader(ReadableByteChannel in, Grammar grammar, String record, int window) {
+		super();
+		if (in instanceof SelectableChannel && !((SelectableChannel) in).isBlocking()) {
+			throw new IllegalArgumentException("Channel must be blocking");
+		}
+		this.in = in;
+		this.record = grammar.rule(record.intern());
+		this.window = ByteBuffer.allocateDirect(window);
+		this.window.limit(0);
+		this.tree = new ParseTree(grammar, Math.max(512, window));
+	}
+
+	/**
+	 * Parses the next record.
+	 * 
+	 * @return false if there are no more records
+	 * @throws ParseException if the next record does not match
+	 * @throws IllegalStateException if a record does not fit into the window
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			final int limit = window.limit();
+			while (pos < limit && isWhitespace(window.get(pos))) {
+				pos++;
+			}
+			if (pos >= limit) {
+				if (eof) {
+					tree.clear();
+					return false;
+				}
+				fill();
+				continue;
+			}
+			tree.clear();
+			int end;
+			try {
+				end = Parser.parse(record, tree, window, pos);
+			} catch (ParseException e) {
+				if (eof || !PushParser.incomplete(record, tree, window, pos)) {
+					throw e;
+				}
+				fill();
+				continue;
+			}
+			if (end > pos && (end < limit || eof)) {
+				pos = end;
+				records++;
+				return true;
+			}
+			if (eof || end < 0 && !PushParser.incomplete(record, tree, window, pos)) {
+				throw new ParseException(window, pos, end < 0 ? -end-1 : end, tree);
+			}
+			fill();
+		}
+	}
+
+	public void forEach(Records records) throws IOException {
+		while (next()) {
+			records.record(tree, window, offset);
+		}
+	}
+
+	/**
+	 * @return the tree of the current record, reused for the next record
+	 */
+	public ParseTree tree() {
+		return tree;
+	}
+
+	/**
+	 * @return the window of the input the current record is in
+	 */
+	public ByteBuffer input() {
+		return window;
+	}
+
+	/**
+	 * @return the position in the channel of position 0 of the window
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	/**
+	 * @return the number of records parsed so far
+	 */
+	public long records() {
+		return records;
+	}
+
+	/**
+	 * Discards the input before the next record and reads more input.
+	 */
+	private void fill() throws IOException {
+		if (pos == 0 && window.limit() == window.capacity()) {
+			throw new IllegalStateException("Record at "+offset+" does not fit into window of "+window.capacity()+" bytes");
+		}
+		window.position(pos);
+		window.compact();
+		offset += pos;
+		pos = 0;
+		if (in.read(window) < 0) {
+			eof = true;
+		}
+		window.limit(window.position());
+		window.position(0);
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+}
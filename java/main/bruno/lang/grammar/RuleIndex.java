@@ -0,0 +1,71 @@
+package bruno.lang.grammar;
+
+import java.util.Arrays;
+
+/**
+ * Lists the nodes of a {@link ParseTree} by their rule.
+ *
+ * The node indices of all rules are stored in a single array grouped by rule
+ * id (counting sort over the ids). Within a group they are in the order of the
+ * tree. Getting all nodes of a rule therefore costs as much as there are such
+ * nodes and not a scan over the whole tree.
+ *
+ * @author jan
+ */
+public final class RuleIndex {
+
+	public static RuleIndex of(ParseTree tree) {
+		final int c = tree.count();
+		int ids = 0;
+		for (int i = 0; i < c; i++) {
+			ids = Math.max(ids, tree.id(i));
+		}
+		int[] offsets = new int[ids+2];
+		for (int i = 0; i < c; i++) {
+			offsets[tree.id(i)+1]++;
+		}
+		for (int id = 1; id < offsets.length; id++) {
+			offsets[id] += offsets[id-1];
+		}
+		int[] next = Arrays.copyOf(offsets, ids+1);
+		int[] nodes = new int[c];
+		for (int i = 0; i < c; i++) {
+			nodes[next[tree.id(i)]++] = i;
+		}
+		return new RuleIndex(offsets, nodes);
+	}
+
+	private final int[] offsets; // by id, first index in nodes (and end)
+	private final int[] nodes;
+
+	private RuleIndex(int[] offsets, int[] nodes) {
+		super();
+		this.offsets = offsets;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * @return number of nodes of the rule with the given id
+	 */
+	public int count(int id) {
+		return id+1 < offsets.length ? offsets[id+1] - offsets[id] : 0;
+	}
+
+	/**
+	 * @return the index of the n-th (0 for first) node of the rule with the
+	 *         given id
+	 */
+	public int node(int id, int n) {
+		if (n < 0 || n >= count(id)) {
+			throw new IndexOutOfBoundsException("Rule "+id+" has no node "+n);
+		}
+		return nodes[offsets[id]+n];
+	}
+
+	/**
+	 * @return a copy of the indices of all nodes of the rule with the given id
+	 */
+	public int[] nodes(int id) {
+		return count(id) == 0 ? new int[0] : Arrays.copyOfRange(nodes, offsets[id], offsets[id+1]);
+	}
+}
@@ -0,0 +1,297 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Content hashes of all subtrees of a {@link ParseTree}.
+ *
+ * The hash of a node covers the id of its rule, the hashes of its child nodes
+ * and the input bytes of the node that are not covered by a child, all in the
+ * order of the input. It does not depend on the position or level of the
+ * node so that equal subtrees have equal hashes within a tree as well as
+ * between trees of the same grammar, for example two versions of a file.
+ *
+ * All hashes are computed in a single pass over the nodes. The nodes whose
+ * subtree is not yet complete are kept on an explicit stack; when a subtree
+ * ends its hash is combined into that of its parent.
+ *
+ * Equal subtrees can be stored once, see {@link #compact()}.
+ *
+ * @author jan
+ */
+public final class Subtrees {
+
+	public static Subtrees of(ParseTree tree, ByteBuffer input) {
+		final int c = tree.count();
+		long[] hashes = new long[c];
+		int[] sizes = new int[c];
+		int[] nodes = new int[50];
+		long[] running = new long[50];
+		int[] consumed = new int[50]; // end of the input hashed by the node so far
+		int top = -1;
+		for (int i = 0; i <= c; i++) {
+			final int l = i < c ? tree.level(i) : -1;
+			while (top >= 0 && tree.level(nodes[top]) >= l) {
+				final int n = nodes[top];
+				long h = bytes(running[top], input, consumed[top], tree.end(n));
+				h = mix(h ^ (tree.end(n) - tree.start(n)));
+				hashes[n] = h;
+				sizes[n] = i - n;
+				if (--top >= 0) {
+					running[top] = (Long.rotateLeft(running[top], 29) ^ h) * 0x9E3779B97F4A7C15L;
+					consumed[top] = tree.end(n);
+				}
+			}
+			if (i < c) {
+				if (top >= 0) {
+					running[top] = bytes(running[top], input, consumed[top], tree.start(i));
+				}
+				if (++top >= nodes.length) {
+					nodes = Arrays.copyOf(nodes, nodes.length * 2);
+					running = Arrays.copyOf(running, running.length * 2);
+					consumed = Arrays.copyOf(consumed, consumed.length * 2);
+				}
+				nodes[top] = i;
+				running[top] = mix(tree.id(i) + 0x632BE59BD9B4E019L);
+				consumed[top] = tree.start(i);
+			}
+		}
+		return new Subtrees(tree, input, hashes, sizes);
+	}
+
+	private static long bytes(long h, ByteBuffer input, int start, int end) {
+		for (int i = start; i < end; i++) {
+			h = (h ^ (input.get(i) & 0xFF)) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private final ParseTree tree;
+	private final ByteBuffer input;
+	private final long[] hashes;
+	private final int[] sizes;
+
+	private Subtrees(ParseTree tree, ByteBuffer input, long[] hashes, int[] sizes) {
+		super();
+		this.tree = tree;
+		this.input = input;
+		this.hashes = hashes;
+		this.sizes = sizes;
+	}
+
+	public long hash(int index) {
+		return hashes[index];
+	}
+
+	/**
+	 * @return the number of nodes of the subtree of the node (including itself)
+	 */
+	public int size(int index) {
+		return sizes[index];
+	}
+
+	/**
+	 * @return true if the subtrees of the two nodes have the same rule ids,
+	 *         shape and text. The hashes make this fast for different subtrees, equal
+	 *         hashes are verified node by node.
+	 */
+	public boolean identical(int a, int b) {
+		if (a == b) {
+			return true;
+		}
+		if (hashes[a] != hashes[b] || sizes[a] != sizes[b]) {
+			return false;
+		}
+		final int levels = tree.level(b) - tree.level(a);
+		final int offset = tree.start(b) - tree.start(a);
+		for (int i = 0; i < sizes[a]; i++) {
+			if (tree.id(a+i) != tree.id(b+i)
+					|| tree.level(a+i) + levels != tree.level(b+i)
+					|| tree.start(a+i) + offset != tree.start(b+i)
+					|| tree.end(a+i) + offset != tree.end(b+i)) {
+				return false;
+			}
+		}
+		final int s = tree.start(a);
+		for (int i = 0; i < tree.end(a) - s; i++) {
+			if (input.get(s+i) != input.get(s+offset+i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Rules of the same name share the id, a reference has to give the exact
+	 * rules of the nodes.
+	 */
+	private boolean sameRules(int a, int b) {
+		for (int i = 0; i < sizes[a]; i++) {
+			if (tree.key(a+i) != tree.key(b+i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the tree with subtrees equal to an earlier subtree replaced by a
+	 *         reference to it
+	 */
+	public Compact compact() {
+		final int c = tree.count();
+		Compact compact = new Compact(tree.rules(), c);
+		// open addressing table: hash -> index of the first node having it
+		final int mask = Integer.highestOneBit(Math.max(1, c)) * 4 - 1;
+		int[] table = new int[mask+1];
+		Arrays.fill(table, -1);
+		int[] entries = new int[c]; // index of the compact entry for each stored node
+		int i = 0;
+		while (i < c) {
+			if (sizes[i] > 1) { // a reference to a leaf would not save anything
+				int slot = (int) (hashes[i] ^ hashes[i] >>> 32) & mask;
+				while (table[slot] >= 0 && !(identical(table[slot], i) && sameRules(table[slot], i))) {
+					slot = (slot+1) & mask;
+				}
+				if (table[slot] >= 0) {
+					compact.add(tree.key(i), tree.level(i), tree.start(i), tree.end(i), entries[table[slot]], sizes[i]);
+					i += sizes[i];
+					continue;
+				}
+				table[slot] = i;
+			}
+			entries[i] = compact.add(tree.key(i), tree.level(i), tree.start(i), tree.end(i), -1, 1);
+			i++;
+		}
+		return compact;
+	}
+
+	/**
+	 * A parse tree where subtrees that are equal to an earlier subtree are
+	 * stored as a single reference node. The reference node keeps its own
+	 * level and position, the nodes below are those of the referenced node
+	 * moved to the reference's position.
+	 */
+	public static final class Compact {
+
+		private final Rule[] rules;
+		private int[] keys;
+		private int[] levels;
+		private int[] starts;
+		private int[] ends;
+		private int[] refs;
+		private int entries;
+		private int count;
+
+		Compact(Rule[] rules, int capacity) {
+			super();
+			this.rules = rules;
+			int n = Math.max(16, capacity / 4);
+			keys = new int[n];
+			levels = new int[n];
+			starts = new int[n];
+			ends = new int[n];
+			refs = new int[n];
+		}
+
+		int add(int key, int level, int start, int end, int ref, int nodes) {
+			if (entries == keys.length) {
+				int n = entries * 2;
+				keys = Arrays.copyOf(keys, n);
+				levels = Arrays.copyOf(levels, n);
+				starts = Arrays.copyOf(starts, n);
+				ends = Arrays.copyOf(ends, n);
+				refs = Arrays.copyOf(refs, n);
+			}
+			keys[entries] = key;
+			levels[entries] = level;
+			starts[entries] = start;
+			ends[entries] = end;
+			refs[entries] = ref;
+			count += nodes;
+			return entries++;
+		}
+
+		/**
+		 * @return the number of stored nodes (including references)
+		 */
+		public int entries() {
+			return entries;
+		}
+
+		/**
+		 * @return the number of nodes of the expanded tree
+		 */
+		public int count() {
+			return count;
+		}
+
+		/**
+		 * @return the index of the referenced entry or -1 if the entry is not
+		 *         a reference
+		 */
+		public int reference(int entry) {
+			return refs[entry];
+		}
+
+		public int id(int entry) {
+			return rules[keys[entry]].id;
+		}
+
+		public int level(int entry) {
+			return levels[entry];
+		}
+
+		public int start(int entry) {
+			return starts[entry];
+		}
+
+		public int end(int entry) {
+			return ends[entry];
+		}
+
+		/**
+		 * @return the full tree with all references replaced by their subtree
+		 */
+		public ParseTree expand() {
+			ParseTree tree = new ParseTree(rules, count);
+			int e = 0;
+			while (e < entries) {
+				e = expand(e, 0, 0, tree);
+			}
+			return tree;
+		}
+
+		/**
+		 * Appends the subtree of the entry moved by the given level and offset.
+		 *
+		 * @return the entry after the entry's subtree
+		 */
+		private int expand(int entry, int dLevel, int offset, ParseTree tree) {
+			final int l = levels[entry];
+			int e = entry;
+			do {
+				if (refs[e] >= 0) {
+					final int ref = refs[e];
+					expand(ref, dLevel + levels[e] - levels[ref], offset + starts[e] - starts[ref], tree);
+				} else {
+					tree.append(rules[keys[e]], levels[e] + dLevel, starts[e] + offset, ends[e] + offset);
+				}
+				e++;
+			} while (e < entries && levels[e] > l);
+			return e;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Interns the texts of nodes of selected rules while parsing.
+ *
+ * Each distinct text gets a small symbol id (starting from 1) so that nodes
+ * can be compared and grouped by id. The bytes are hashed once when the node
+ * is done, a text already known is found by comparing the bytes with the copy
+ * kept in the table.
+ *
+ * The texts are kept in a single growing byte array. The table is an open
+ * addressing (linear probing) hash table of symbol ids.
+ *
+ * Texts of nodes that are later discarded by backtracking stay interned.
+ *
+ * @author jan
+ */
+public final class Symbols {
+
+	/**
+	 * @param rules names of the rules whose texts are interned
+	 */
+	public static Symbols of(Grammar grammar, String... rules) {
+		boolean[] interned = new boolean[grammar.symbols()+1];
+		for (String rule : rules) {
+			interned[grammar.id(rule)] = true;
+		}
+		return new Symbols(interned);
+	}
+
+	private final boolean[] rules; // by rule id
+
+	private byte[] texts = new byte[1024];
+	private int textsLength;
+	private int[] offsets = new int[64]; // by symbol id
+	private int[] lengths = new int[64];
+	private int[] hashes = new int[64];
+	private int count;
+
+	private int[] table = new int[128]; // symbol ids, 0 = empty
+
+	private Symbols(boolean[] rules) {
+		super();
+		this.rules = rules;
+	}
+
+	/**
+	 * @return true if texts of the rule with the given id are interned
+	 */
+	public boolean interns(int rule) {
+		return rule < rules.length && rules[rule];
+	}
+
+	/**
+	 * @return number of distinct texts (which is the highest symbol id)
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return the symbol id of the text, a new id if it is not yet known
+	 */
+	public int intern(ByteBuffer input, int start, int end) {
+		final int hash = hash(input, start, end);
+		final int mask = table.length-1;
+		int slot = hash & mask;
+		int symbol;
+		while ((symbol = table[slot]) != 0) {
+			if (hashes[symbol] == hash && equals(symbol, input, start, end)) {
+				return symbol;
+			}
+			slot = (slot+1) & mask;
+		}
+		symbol = add(input, start, end, hash);
+		table[slot] = symbol;
+		if (count * 2 > table.length) {
+			rehash();
+		}
+		return symbol;
+	}
+
+	/**
+	 * @return the symbol id of the text or 0 if it is not known
+	 */
+	public int symbol(ByteBuffer input, int start, int end) {
+		final int hash = hash(input, start, end);
+		final int mask = table.length-1;
+		int slot = hash & mask;
+		int symbol;
+		while ((symbol = table[slot]) != 0) {
+			if (hashes[symbol] == hash && equals(symbol, input, start, end)) {
+				return symbol;
+			}
+			slot = (slot+1) & mask;
+		}
+		return 0;
+	}
+
+	public boolean equals(int symbol, ByteBuffer input, int start, int end) {
+		final int len = lengths[symbol];
+		if (len != end - start) {
+			return false;
+		}
+		final int offset = offsets[symbol];
+		for (int i = 0; i < len; i++) {
+			if (texts[offset+i] != input.get(start+i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int hash(int symbol) {
+		return hashes[symbol];
+	}
+
+	public int length(int symbol) {
+		return lengths[symbol];
+	}
+
+	/**
+	 * @return a copy of the text of the symbol
+	 */
+	public byte[] bytes(int symbol) {
+		return Arrays.copyOfRange(texts, offsets[symbol], offsets[symbol]+lengths[symbol]);
+	}
+
+	/**
+	 * @return a copy of the text of the symbol
+	 */
+	public String string(int symbol) {
+		return new String(texts, offsets[symbol], lengths[symbol], UTF8.CHARSET);
+	}
+
+	private int add(ByteBuffer input, int start, int end, int hash) {
+		final int len = end - start;
+		final int symbol = ++count;
+		if (symbol >= offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			lengths = Arrays.copyOf(lengths, lengths.length * 2);
+			hashes = Arrays.copyOf(hashes, hashes.length * 2);
+		}
+		if (textsLength + len > texts.length) {
+			texts = Arrays.copyOf(texts, Math.max(texts.length * 2, textsLength + len));
+		}
+		for (int i = 0; i < len; i++) {
+			texts[textsLength+i] = input.get(start+i);
+		}
+		offsets[symbol] = textsLength;
+		lengths[symbol] = len;
+		hashes[symbol] = hash;
+		textsLength += len;
+		return symbol;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		final int mask = table.length-1;
+		for (int symbol = 1; symbol <= count; symbol++) {
+			int slot = hashes[symbol] & mask;
+			while (table[slot] != 0) {
+				slot = (slot+1) & mask;
+			}
+			table[slot] = symbol;
+		}
+	}
+
+	/**
+	 * FNV-1a with a final mix so that the low bits used as slot are good.
+	 */
+	private static int hash(ByteBuffer input, int start, int end) {
+		int h = 0x811C9DC5;
+		for (int i = start; i < end; i++) {
+			h = (h ^ input.get(i)) * 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+}
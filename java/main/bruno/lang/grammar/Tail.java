@@ -0,0 +1,90 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+/**
+ * Keeps the index of a file that is only appended to (like a log) up to
+ * date by parsing just the bytes appended since the last {@link #poll()}.
+ *
+ * The file is a sequence of records, see {@link LargeFile}. Between records
+ * the parser has no state but the offset after the last complete record, the
+ * committed offset. A poll parses from there to the current end of the file
+ * and appends the nodes of the complete records to the index. A record is
+ * only complete when followed by whitespace (usually the line break), so the
+ * partially written last record is parsed again on the next poll once more of
+ * it has been written.
+ *
+ * <pre>
+ * Tail log = new Tail(path, grammar, "entry");
+ * while (...) { if (log.poll() > 0) { log.index() ... } }
+ * </pre>
+ *
+ * @author jan
+ */
+public final class Tail {
+
+	private static final int REGION = 1 << 30;
+
+	private final Path file;
+	private final Rule record;
+	private final ParseTree tree;
+	private final LongParseTree index;
+	private final int region;
+	private long committed;
+
+	public Tail(Path file, Grammar grammar, String record) {
+		this(file, grammar, record, REGION);
+	}
+
+	/**
+	 * @param region the size of the mapped regions, limits the size of a record
+	 */
+	public Tail(Path file, Grammar grammar, String record, int region) {
+		super();
+		this.file = file;
+		this.record = grammar.rule(record.intern());
+		this.tree = new ParseTree(grammar, 512);
+		this.index = new LongParseTree(tree.rules(), 1024);
+		this.region = region;
+	}
+
+	/**
+	 * Parses the bytes appended since the last poll.
+	 *
+	 * @return the number of records added to the index
+	 * @throws ParseException if a record does not match (before the end of
+	 *         the file)
+	 * @throws IllegalArgumentException if the file got shorter than the
+	 *         committed offset
+	 */
+	public int poll() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < committed) {
+				throw new IllegalArgumentException("File has been truncated: "+file);
+			}
+			final int records = index.records();
+			committed = LargeFile.parse(channel, record, tree, index, committed, region, true);
+			return index.records() - records;
+		}
+	}
+
+	/**
+	 * @return the index of all complete records so far
+	 */
+	public LongParseTree index() {
+		return index;
+	}
+
+	/**
+	 * @return the offset after the last complete record, parsing continues
+	 *         from here
+	 */
+	public long committed() {
+		return committed;
+	}
+}
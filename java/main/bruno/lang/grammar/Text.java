@@ -0,0 +1,264 @@
+package bruno.lang.grammar;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view on the UTF-8 encoded text between a start and end position of an
+ * input buffer, for example the text of a node in a {@link ParseTree}.
+ *
+ * Comparing and hashing work directly on the bytes. A text is mutable so the
+ * same instance can be moved to any range of the input. Only
+ * {@link #toString()} and {@link #bytes()} copy the text.
+ *
+ * The {@link CharSequence} methods count in UTF-16 chars. For ASCII text these
+ * are the bytes, otherwise the text is decoded from the beginning (or the last
+ * position read) so reading it sequentially is still linear.
+ *
+ * Note that texts are only equal to other texts and the hash code is a hash of
+ * the bytes, not that of the equal {@link String}.
+ *
+ * @author jan
+ */
+public final class Text implements CharSequence, Comparable<Text> {
+
+	public static Text of(ByteBuffer input) {
+		return new Text(input);
+	}
+
+	public static Text of(ByteBuffer input, int start, int end) {
+		return new Text(input).at(start, end);
+	}
+
+	private final ByteBuffer input;
+	private int start;
+	private int end;
+
+	private int chars = -1; // UTF-16 length, -1 if not yet known
+	private int cursorChar;  // char index of the cursor
+	private int cursorByte;  // position of the cursor
+
+	public Text(ByteBuffer input) {
+		super();
+		this.input = input;
+	}
+
+	/**
+	 * Moves this text to the given range of the input.
+	 */
+	public Text at(int start, int end) {
+		if (start < 0 || end < start || end > input.limit()) {
+			throw new IndexOutOfBoundsException(start+":"+end);
+		}
+		this.start = start;
+		this.end = end;
+		this.chars = -1;
+		this.cursorChar = 0;
+		this.cursorByte = start;
+		return this;
+	}
+
+	/**
+	 * Moves this text to the text of the given node.
+	 */
+	public Text at(ParseTree tree, int index) {
+		return at(tree.start(index), tree.end(index));
+	}
+
+	public int start() {
+		return start;
+	}
+
+	public int end() {
+		return end;
+	}
+
+	/**
+	 * @return the length in bytes
+	 */
+	public int bytesLength() {
+		return end - start;
+	}
+
+	public byte byteAt(int index) {
+		return input.get(start+index);
+	}
+
+	public boolean isEmpty() {
+		return end == start;
+	}
+
+	/**
+	 * @return the length in UTF-16 chars (as for a {@link String})
+	 */
+	@Override
+	public int length() {
+		if (chars < 0) {
+			int n = 0;
+			for (int i = start; i < end; ) {
+				int c = UTF8.byteCount(input, i);
+				n += c == 4 ? 2 : 1;
+				i += c;
+			}
+			chars = n;
+		}
+		return chars;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length()) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		if (chars == end - start) { // ASCII
+			return (char) input.get(start+index);
+		}
+		if (index < cursorChar) {
+			cursorChar = 0;
+			cursorByte = start;
+		}
+		while (true) {
+			int n = UTF8.byteCount(input, cursorByte);
+			int w = n == 4 ? 2 : 1;
+			if (index < cursorChar + w) {
+				int cp = UTF8.codePoint(input, cursorByte);
+				return w == 1 ? (char) cp : index == cursorChar ? Character.highSurrogate(cp) : Character.lowSurrogate(cp);
+			}
+			cursorChar += w;
+			cursorByte += n;
+		}
+	}
+
+	/**
+	 * @return a new text of the given range (in chars)
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end < start || end > length()) {
+			throw new IndexOutOfBoundsException(start+":"+end);
+		}
+		return new Text(input).at(position(start), position(end));
+	}
+
+	private int position(int charIndex) {
+		int c = 0;
+		int i = start;
+		while (c < charIndex) {
+			int n = UTF8.byteCount(input, i);
+			c += n == 4 ? 2 : 1;
+			i += n;
+		}
+		return i;
+	}
+
+	public boolean startsWith(byte[] prefix) {
+		return prefix.length <= end - start && regionEquals(start, prefix);
+	}
+
+	public boolean endsWith(byte[] suffix) {
+		return suffix.length <= end - start && regionEquals(end - suffix.length, suffix);
+	}
+
+	public boolean startsWith(Text prefix) {
+		final int l = prefix.end - prefix.start;
+		if (l > end - start) {
+			return false;
+		}
+		for (int i = 0; i < l; i++) {
+			if (input.get(start+i) != prefix.input.get(prefix.start+i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean contentEquals(byte[] text) {
+		return text.length == end - start && regionEquals(start, text);
+	}
+
+	/**
+	 * Compares the text with the given chars without encoding them to bytes.
+	 */
+	public boolean contentEquals(CharSequence s) {
+		int i = start;
+		int j = 0;
+		final int l = s.length();
+		while (i < end && j < l) {
+			int cp = Character.codePointAt(s, j);
+			if (UTF8.codePoint(input, i) != cp) {
+				return false;
+			}
+			i += UTF8.byteCount(input, i);
+			j += Character.charCount(cp);
+		}
+		return i == end && j == l;
+	}
+
+	private boolean regionEquals(int position, byte[] text) {
+		for (int i = 0; i < text.length; i++) {
+			if (input.get(position+i) != text[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Orders by bytes (unsigned) which is the order of the code points.
+	 */
+	@Override
+	public int compareTo(Text other) {
+		final int l = Math.min(end - start, other.end - other.start);
+		for (int i = 0; i < l; i++) {
+			int a = input.get(start+i) & 0xFF;
+			int b = other.input.get(other.start+i) & 0xFF;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return (end - start) - (other.end - other.start);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Text)) {
+			return false;
+		}
+		Text other = (Text) obj;
+		return end - start == other.end - other.start && startsWith(other);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + input.get(i);
+		}
+		return h;
+	}
+
+	/**
+	 * @return a copy of the bytes of the text
+	 */
+	public byte[] bytes() {
+		byte[] bytes = new byte[end - start];
+		ByteBuffer b = input.duplicate();
+		b.limit(end);
+		b.position(start);
+		b.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return a copy of the text as {@link String}
+	 */
+	@Override
+	public String toString() {
+		if (input.hasArray()) {
+			return new String(input.array(), input.arrayOffset()+start, end - start, UTF8.CHARSET);
+		}
+		return new String(bytes(), UTF8.CHARSET);
+	}
+}
@@ -0,0 +1,208 @@
+package bruno.lang.grammar;
+
+import java.util.Arrays;
+
+/**
+ * A reusable and mutable position in a parse tree.
+ *
+ * All the parse tree implementations store nodes in depth first order with
+ * their level. A cursor only needs these levels to move between parents,
+ * children and siblings so the same walker can be used on any of the trees.
+ * The cursor keeps the indices of the nodes on the path from the root to the
+ * current node so moving to the parent is immediate. Moving to the next
+ * sibling walks over the nodes of the current node's subtree, a cursor made
+ * with a {@link NodeIndex} jumps there instead.
+ *
+ * Moving the cursor does not allocate unless the tree is deeper than any
+ * tree the cursor has been used for before.
+ *
+ * @author jan
+ */
+public abstract class TreeCursor {
+
+	public static TreeCursor of(final ParseTree tree) {
+		return new TreeCursor() {
+
+			@Override
+			int count() { return tree.count(); }
+			@Override
+			int level(int index) { return tree.level(index); }
+			@Override
+			int start(int index) { return tree.start(index); }
+			@Override
+			int end(int index) { return tree.end(index); }
+		};
+	}
+
+	/**
+	 * A cursor that uses the index to jump to the next sibling.
+	 */
+	public static TreeCursor of(final ParseTree tree, final NodeIndex nodes) {
+		return new TreeCursor() {
+
+			@Override
+			int count() { return tree.count(); }
+			@Override
+			int level(int index) { return tree.level(index); }
+			@Override
+			int start(int index) { return tree.start(index); }
+			@Override
+			int end(int index) { return tree.end(index); }
+			@Override
+			int next(int index) { return nodes.next(index); }
+		};
+	}
+
+	public static TreeCursor of(final BParseTree tree) {
+		return new TreeCursor() {
+
+			@Override
+			int count() { return tree.count(); }
+			@Override
+			int level(int index) { return tree.level(index); }
+			@Override
+			int start(int index) { return tree.start(index); }
+			@Override
+			int end(int index) { return tree.end(index); }
+		};
+	}
+
+	public static TreeCursor of(final alma.lang.ParseTree tree) {
+		return new TreeCursor() {
+
+			@Override
+			int count() { return tree.nodes(); }
+			@Override
+			int level(int index) { return tree.level(index); }
+			@Override
+			int start(int index) { return tree.start(index); }
+			@Override
+			int end(int index) { return tree.end(index); }
+		};
+	}
+
+	private int[] path = new int[50];
+	private int index;
+	private int level;
+
+	TreeCursor() {
+		super();
+		reset();
+	}
+
+	abstract int count();
+
+	abstract int level(int index);
+
+	abstract int start(int index);
+
+	abstract int end(int index);
+
+	/**
+	 * @return the index after the subtree of the node
+	 */
+	int next(int index) {
+		final int c = count();
+		final int l = level(index);
+		int i = index+1;
+		while (i < c && level(i) > l) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Moves the cursor back to the first root node.
+	 */
+	public final void reset() {
+		index = 0;
+		level = 0;
+		path[0] = 0;
+	}
+
+	/**
+	 * @return true if there are nodes to visit, false if the tree is empty
+	 */
+	public final boolean exists() {
+		return index < count();
+	}
+
+	/**
+	 * @return the index of the current node in the tree
+	 */
+	public final int index() {
+		return index;
+	}
+
+	/**
+	 * @return the level (depth) of the current node, 0 for roots
+	 */
+	public final int level() {
+		return level;
+	}
+
+	public final int start() {
+		return start(index);
+	}
+
+	public final int end() {
+		return end(index);
+	}
+
+	public final int length() {
+		return end(index) - start(index);
+	}
+
+	public final boolean firstChild() {
+		final int i = index+1;
+		if (i >= count() || level(i) != level+1) {
+			return false;
+		}
+		moveTo(i, level+1);
+		return true;
+	}
+
+	public final boolean nextSibling() {
+		final int i = next(index);
+		if (i >= count() || level(i) != level) {
+			return false;
+		}
+		moveTo(i, level);
+		return true;
+	}
+
+	public final boolean parent() {
+		if (level == 0) {
+			return false;
+		}
+		level--;
+		index = path[level];
+		return true;
+	}
+
+	/**
+	 * Moves to the next node in depth first order.
+	 */
+	public final boolean next() {
+		final int i = index+1;
+		if (i >= count()) {
+			return false;
+		}
+		moveTo(i, level(i));
+		return true;
+	}
+
+	private void moveTo(int index, int level) {
+		if (level >= path.length) {
+			path = Arrays.copyOf(path, path.length * 2);
+		}
+		path[level] = index;
+		this.index = index;
+		this.level = level;
+	}
+
+	@Override
+	public String toString() {
+		return index+"@"+level+" "+start()+":"+end();
+	}
+}
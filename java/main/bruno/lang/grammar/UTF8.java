@@ -5,7 +5,7 @@ import java.nio.charset.Charset;
 
 public final class UTF8 {
 
-	private static final Charset CHARSET = Charset.forName("UTF-8");
+	static final Charset CHARSET = Charset.forName("UTF-8");
 
 	static final int MAX_CODE_POINT = 0x7FFFFFFF;
 	
@@ -0,0 +1,70 @@
+package bruno.lang.grammar;
+
+/**
+ * A flyweight view on a node of a {@link ParseTree}.
+ *
+ * A view is just a tree and an index so it can be moved to any node without
+ * creating new objects. The views for a particular {@link Grammar} are
+ * generated by {@link Views} with typed accessors for child nodes.
+ *
+ * @author jan
+ */
+public abstract class View {
+
+	protected final ParseTree tree;
+	protected int index = -1;
+
+	protected View(ParseTree tree) {
+		super();
+		this.tree = tree;
+	}
+
+	public final int index() {
+		return index;
+	}
+
+	/**
+	 * @return false if this view has not been moved to a node or moved to a
+	 *         missing child.
+	 */
+	public final boolean exists() {
+		return index >= 0;
+	}
+
+	public final int start() {
+		return tree.start(index);
+	}
+
+	public final int end() {
+		return tree.end(index);
+	}
+
+	/**
+	 * @return index of the next direct child node of the given rule after the
+	 *         given child (or this node itself to search from the first child)
+	 *         or -1 if there is no such child.
+	 */
+	protected final int child(int rule, int after) {
+		if (index < 0 || after < 0) {
+			return -1;
+		}
+		final int l = tree.level(index)+1;
+		final int c = tree.count();
+		int i = after+1;
+		while (i < c && tree.level(i) > l) {
+			i++;
+		}
+		while (i < c && tree.level(i) >= l) {
+			if (tree.level(i) == l && tree.id(i) == rule) {
+				return i;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return index < 0 ? "(none)" : tree.rule(index).name+" "+start()+":"+end();
+	}
+}
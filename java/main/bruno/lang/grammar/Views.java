@@ -0,0 +1,158 @@
+package bruno.lang.grammar;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import bruno.lang.grammar.Grammar.Rule;
+import bruno.lang.grammar.Grammar.RuleType;
+
+/**
+ * Generates the java source of {@link View} classes for the capture rules of a
+ * {@link Grammar}.
+ *
+ * Each name of a capture rule becomes a nested class with the name and id of
+ * the rule as constants and an accessor for each capture rule that can occur
+ * as a direct child. The ids are those assigned by the grammar so the views
+ * fit any grammar made from the same source. The accessor moves a given view
+ * of the child's type to the first such child. Children that can occur more
+ * than once also get an accessor moving a view to the next such child. Named
+ * rules that are not captures have no nodes and so get no view.
+ *
+ * <pre>
+ * Views.generate(grammar, "my.pkg", "Json", out);
+ * ...
+ * Member member = new Member(tree);
+ * Name name = new Name(tree);
+ * member.at(i).name(name).start();
+ * </pre>
+ *
+ * @author jan
+ */
+public final class Views {
+
+	private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+			"abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+			"continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+			"for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+			"new", "package", "private", "protected", "public", "return", "short", "static", "strictfp", "super",
+			"switch", "synchronized", "this", "throw", "throws", "transient", "try", "void", "volatile", "while",
+			"true", "false", "null",
+			// members of View and Object
+			"tree", "index", "exists", "start", "end", "child", "at", "is", "toString", "equals", "hashCode",
+			"getClass", "notify", "notifyAll", "wait", "clone", "finalize"));
+
+	/**
+	 * <pre>
+	 * Views package class grammar-files...
+	 * </pre>
+	 */
+	public static void main(String[] args) throws IOException {
+		Grammar g = Alma.make(Arrays.copyOfRange(args, 2, args.length));
+		generate(g, args[0], args[1], System.out);
+	}
+
+	public static void generate(Grammar grammar, String pkg, String name, Appendable out) throws IOException {
+		Map<String, String> classes = new LinkedHashMap<>();
+		Set<String> used = new HashSet<>();
+		used.add(name);
+		Map<String, Rule> captures = new LinkedHashMap<>(); // first capture of each name
+		Rule[] keys = grammar.keyTable();
+		for (int key = 1; key < keys.length; key++) {
+			Rule rule = keys[key];
+			if (rule.type == RuleType.CAPTURE && !captures.containsKey(rule.name)) {
+				captures.put(rule.name, rule);
+				String cls = className(rule.name);
+				if (used.contains(cls)) {
+					cls = cls + rule.id;
+				}
+				used.add(cls);
+				classes.put(rule.name, cls);
+			}
+		}
+		if (!pkg.isEmpty()) {
+			out.append("package ").append(pkg).append(";\n\n");
+		}
+		out.append("import bruno.lang.grammar.ParseTree;\n");
+		out.append("import bruno.lang.grammar.View;\n\n");
+		out.append("/**\n * Views on the nodes of a grammar's parse trees.\n *\n * Generated by {@link bruno.lang.grammar.Views}, do not edit.\n */\n");
+		out.append("public final class ").append(name).append(" {\n\n");
+		out.append("\tprivate ").append(name).append("() {\n\t\t// just a namespace\n\t}\n");
+		for (Rule rule : captures.values()) {
+			generate(rule, classes, out);
+		}
+		out.append("}\n");
+	}
+
+	private static void generate(Rule rule, Map<String, String> classes, Appendable out) throws IOException {
+		final String cls = classes.get(rule.name);
+		out.append("\n\tpublic static final class ").append(cls).append(" extends View {\n\n");
+		out.append("\t\tpublic static final int ID = ").append(String.valueOf(rule.id)).append(";\n");
+		out.append("\t\tpublic static final java.lang.String NAME = \"").append(rule.name).append("\";\n\n");
+		out.append("\t\tpublic ").append(cls).append("(ParseTree tree) {\n\t\t\tsuper(tree);\n\t\t}\n\n");
+		out.append("\t\tpublic static boolean is(ParseTree tree, int index) {\n");
+		out.append("\t\t\treturn tree.id(index) == ID;\n\t\t}\n\n");
+		out.append("\t\tpublic ").append(cls).append(" at(int index) {\n\t\t\tthis.index = index;\n\t\t\treturn this;\n\t\t}\n");
+		Map<String, Boolean> children = new LinkedHashMap<>();
+		children(rule.elements[0], false, children, new HashSet<Rule>());
+		for (Entry<String, Boolean> child : children.entrySet()) {
+			String type = classes.get(child.getKey());
+			String method = methodName(type);
+			out.append("\n\t\tpublic ").append(type).append(' ').append(method).append('(').append(type).append(" view) {\n");
+			out.append("\t\t\treturn view.at(child(").append(type).append(".ID, index));\n\t\t}\n");
+			if (child.getValue()) {
+				out.append("\n\t\tpublic ").append(type).append(" next").append(type).append('(').append(type).append(" view) {\n");
+				out.append("\t\t\treturn view.at(child(").append(type).append(".ID, view.index()));\n\t\t}\n");
+			}
+		}
+		out.append("\t}\n");
+	}
+
+	/**
+	 * Collects the names of the captures that can be direct children of a node
+	 * and if they can occur more than once.
+	 */
+	private static void children(Rule rule, boolean many, Map<String, Boolean> children, Set<Rule> followed) {
+		if (rule.type == RuleType.CAPTURE && !rule.name.isEmpty()) {
+			children.put(rule.name, many || children.containsKey(rule.name));
+			return;
+		}
+		if (followed.contains(rule)) {
+			return;
+		}
+		followed.add(rule);
+		if (rule.type == RuleType.REPETITION && rule.occur.max > 1) {
+			many = true;
+		}
+		for (Rule e : rule.elements) {
+			children(e, many, children, followed);
+		}
+	}
+
+	private static String className(String rule) {
+		StringBuilder b = new StringBuilder();
+		boolean upper = true;
+		for (int i = 0; i < rule.length(); i++) {
+			char c = rule.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				b.append(upper ? Character.toUpperCase(c) : c);
+				upper = false;
+			} else {
+				upper = true;
+			}
+		}
+		if (b.length() == 0 || Character.isDigit(b.charAt(0))) {
+			b.insert(0, 'R');
+		}
+		return b.toString();
+	}
+
+	private static String methodName(String cls) {
+		String name = Character.toLowerCase(cls.charAt(0))+cls.substring(1);
+		return RESERVED.contains(name) ? name+"_" : name;
+	}
+}
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import bruno.lang.grammar.Grammar.Rule;
 import bruno.lang.grammar.ParseTree;
 import bruno.lang.grammar.IndexOverlayedFile;
+import bruno.lang.grammar.Text;
 
 public final class Print {
 
@@ -27,17 +28,20 @@ public final class Print {
 			this.out = out;
 		}
 
-		public void print(IndexOverlayedFile f) {
-			final ParseTree tree = f.indexOverlay.sequential();
-			for (int i = 0; i < tree.count(); i++) {
-				byte[] indent = new byte[Math.abs(tree.level(i))];
-				Arrays.fill(indent, (byte)' ');
-				out.append(new String(indent));
-				printColor(out, ANSIColor.GREEN, tree.rule(i).name);
-				out.append(' ');
-				printColor(f.file, out, ANSIColor.BLUE, tree.start(i), tree.end(i));
-				out.append('\n');
-			}
+		public void print(final IndexOverlayedFile f) {
+			f.indexOverlay.sequential(new ParseTree.Segments() {
+
+				@Override
+				public void segment(Rule rule, int level, int start, int end) {
+					byte[] indent = new byte[Math.abs(level)];
+					Arrays.fill(indent, (byte)' ');
+					out.append(new String(indent));
+					printColor(out, ANSIColor.GREEN, rule.name);
+					out.append(' ');
+					printColor(f.file, out, ANSIColor.BLUE, start, end);
+					out.append('\n');
+				}
+			});
 		}
 
 	}
@@ -51,26 +55,32 @@ public final class Print {
 			this.out = out;
 		}
 		
-		public void print(IndexOverlayedFile f) {
-			final ParseTree tree = f.indexOverlay.sequential();
-			for (int i = 0; i < tree.count(); i++) {
-				printColor(f.file, out, ANSIColor.rainbow(color++), tree.start(i), tree.end(i));
-			}
+		public void print(final IndexOverlayedFile f) {
+			f.indexOverlay.sequential(new ParseTree.Segments() {
+
+				@Override
+				public void segment(Rule rule, int level, int start, int end) {
+					printColor(f.file, out, ANSIColor.rainbow(color++), start, end);
+				}
+			});
 		}
 		
 	}
 	
 	public static abstract class ColorPrinter {
 
-		abstract void print(ParseTree tree, ByteBuffer in, int index);
+		abstract void print(Rule rule, int level, ByteBuffer in, int start, int end);
 		
 		abstract void print(String s);
 
-		public void print(IndexOverlayedFile f) {
-			ParseTree tree = f.indexOverlay.sequential();
-			for (int i = 0; i < tree.count(); i++) {
-				print(tree, f.file, i);
-			}
+		public void print(final IndexOverlayedFile f) {
+			f.indexOverlay.sequential(new ParseTree.Segments() {
+
+				@Override
+				public void segment(Rule rule, int level, int start, int end) {
+					print(rule, level, f.file, start, end);
+				}
+			});
 			print(ANSIColor.BLACK+"\n"+ANSIColor.RESET);
 		}
 	}
@@ -84,19 +94,15 @@ public final class Print {
 		}
 
 		@Override
-		public void print(ParseTree tree, ByteBuffer input, int index) {
-			int s = tree.start(index);
-			int e = tree.end(index);
+		public void print(Rule rule, int level, ByteBuffer input, int s, int e) {
 			if (e == s) {
 				return;
 			}
-			int l = tree.level(index);
-			if (l < 0) {
+			if (level < 0) {
 				printColor(input, out, ANSIColor.BLACK+ANSIColor.BOLD, s, e);
 				return;
 			}
-			Rule r = tree.rule(index);
-			printColorBlock(input, out, ANSIColor.rainbow(r.name.hashCode()/2-1), s, e);
+			printColorBlock(input, out, ANSIColor.rainbow(rule.name.hashCode()/2-1), s, e);
 			out.append(ANSIColor.RESET);
 		}
 		
@@ -115,13 +121,10 @@ public final class Print {
 		}
 		
 		@Override
-		public void print(ParseTree tree, ByteBuffer input, int index) {
-			int s = tree.start(index);
-			int e = tree.end(index);
+		public void print(Rule rule, int l, ByteBuffer input, int s, int e) {
 			if (e == s) {
 				return;
 			}
-			int l = tree.level(index);
 			String color = ANSIColor.rainbow(l);
 			if (l < 0) {
 				printColor(input, out, color, s, e);
@@ -171,11 +174,6 @@ public final class Print {
 	}
 
 	private static String string(ByteBuffer input, int start, int end) {
-		byte[] p = new byte[end-start];
-		int j = 0;
-		for (int i = start; i < end; i++) {
-			p[j++] = input.get(i);
-		}
-		return new String(p);
+		return Text.of(input, start, end).toString();
 	}
 }
@@ -1,6 +1,8 @@
 package bruno.lang.grammar;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 
@@ -61,4 +63,84 @@ public class TestAlma {
 	public void printBruno() throws IOException {
 		System.out.println(Alma.make("alma/prelude.alma", "alma/bruno.alma"));
 	}
+
+	@Test
+	public void ruleIds() throws IOException {
+		Grammar bruno = Alma.make("alma/prelude.alma", "alma/bruno.alma");
+		for (int id = 1; id <= bruno.symbols(); id++) {
+			Grammar.Rule rule = bruno.rule(id);
+			assertEquals(id, rule.id());
+			assertEquals(id, bruno.id(rule.name));
+			assertSame(rule, bruno.rule(new String(rule.name)));
+		}
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.bruno", bruno, "module");
+		ParseTree tree = example.indexOverlay;
+		for (int i = 0; i < tree.count(); i++) {
+			assertSame(tree.rule(i).name, bruno.rule(tree.id(i)).name);
+		}
+	}
+
+	@Test(timeout=1000)
+	public void namesWithEqualHashCodes() {
+		String[] names = { "Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB" };
+		Grammar.Rule[] rules = new Grammar.Rule[names.length];
+		for (int i = 0; i < names.length; i++) {
+			assertEquals((names[i].length() == 2 ? names[0] : names[2]).hashCode(), names[i].hashCode());
+			rules[i] = Grammar.Rule.literal(UTF8.bytes(names[i])).is(names[i]);
+		}
+		Grammar grammar = new Grammar(rules);
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(i+1, grammar.id(names[i]));
+			assertSame(rules[i], grammar.rule(names[i]));
+		}
+	}
+
+	@Test
+	public void rulesOfTheSameName() {
+		Grammar.Rule a = Grammar.Rule.literal(UTF8.bytes("a")).as("x");
+		Grammar.Rule b = Grammar.Rule.literal(UTF8.bytes("b")).as("x");
+		Grammar grammar = new Grammar(Grammar.Rule.seq(a, b).is("s"));
+		assertEquals(a.id(), b.id());
+		ParseTree tree = new ParseTree(grammar, 4);
+		tree.push(a, 0);
+		tree.done(1);
+		tree.push(b, 1);
+		tree.done(2);
+		assertSame(a, tree.rule(0));
+		assertSame(b, tree.rule(1));
+		assertEquals(grammar.id("x"), tree.id(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void ruleOfAnotherGrammar() {
+		Grammar.Rule a = Grammar.Rule.literal(UTF8.bytes("a")).as("x");
+		new Grammar(Grammar.Rule.seq(a).is("s"));
+		new Grammar(Grammar.Rule.seq(a, a).is("t"));
+	}
+
+	@Test
+	public void rulesLearnedByCopies() {
+		Grammar.Rule[] rules = new Grammar.Rule[4];
+		for (int i = 0; i < rules.length; i++) {
+			rules[i] = Grammar.Rule.literal(UTF8.bytes("a")).as("r"+i);
+		}
+		ParseTree tree = new ParseTree(4);
+		tree.push(rules[0], 0);
+		tree.push(rules[1], 0);
+		tree.done(0);
+		tree.done(0);
+		ParseTree copy = tree.copy();
+		tree.push(rules[2], 0);
+		tree.done(0);
+		copy.append(rules[3], 0, 0, 0);
+		copy.append(rules[0], 0, 0, 0);
+		assertSame(rules[2], tree.rule(2));
+		assertSame(rules[3], copy.rule(2));
+		assertSame(rules[0], copy.rule(3));
+		assertEquals(copy.key(0), copy.key(3));
+		for (int i = 0; i < 2; i++) {
+			assertSame(rules[i], tree.rule(i));
+			assertSame(rules[i], copy.rule(i));
+		}
+	}
 }
@@ -0,0 +1,108 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+public class TestCheckpoints {
+
+	@Test
+	public void reparseFromNearestCheckpoint() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < 500; i++) {
+			b.append(i == 0 ? "" : ",\n").append("{\"id\": ").append(i).append(", \"tags\": [\"a\", \"b\", {\"c\": null}]}");
+		}
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes(b.append("]\n").toString()));
+		Checkpoints checkpoints = Checkpoints.of(json, 256, "array");
+		ParseTree full = new ParseTree(json, 512).checkpoint(checkpoints);
+		assertEquals(input.limit(), Parser.parse(json.rule("file"), full, input));
+		assertTrue(checkpoints.count() > 50);
+		Random rnd = new Random(7);
+		for (int run = 0; run < 100; run++) {
+			final int start = checkpoints.offset(0) + rnd.nextInt(input.limit() - 100 - checkpoints.offset(0));
+			final int end = start + rnd.nextInt(100);
+			final int c = checkpoints.nearest(start);
+			assertTrue(checkpoints.offset(c) <= start);
+			ParseTree range = checkpoints.reparse(input, start, end);
+			assertSame(json.keyTable(), range.rules());
+			final int level = checkpoints.level(c);
+			for (int l = 0; l <= level; l++) {
+				assertEquals(full.id(ancestor(full, checkpoints.node(c), l)), range.id(l));
+			}
+			assertTrue(range.count() > level+1);
+			final int first = checkpoints.node(c);
+			for (int i = level+1; i < range.count(); i++) {
+				final int n = first + i - level - 1;
+				assertEquals(full.id(n), range.id(i));
+				assertEquals(full.level(n), range.level(i));
+				assertEquals(full.start(n), range.start(i));
+				assertEquals(full.end(n), range.end(i));
+			}
+			assertTrue(range.end(range.count()-1) >= end || range.level(range.count()-1) > level);
+		}
+	}
+
+	@Test
+	public void backtrackedCheckpointsAreRemoved() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		// erasing the nodes (as backtracking does) removes the checkpoints within them
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("[1, 2, 3, 4, 5, 6, 7, 8, 9, 10] x"));
+		Checkpoints checkpoints = Checkpoints.of(json, 1, "array");
+		ParseTree tree = new ParseTree(json, 64).checkpoint(checkpoints);
+		Parser.parse(json.rule("json"), tree, input);
+		final int c = checkpoints.count();
+		assertTrue(c > 0);
+		tree.erase(0);
+		assertEquals(0, checkpoints.count());
+	}
+
+	@Test
+	public void checkpointsOfFailedAlternativesAreRemoved() {
+		// [aaa] is tried as [a...! first, the repetition pushes no nodes
+		Rule a = Rule.literal(UTF8.bytes("a")).occurs(Occur.occur(1, Occur.MAX_OCCURANCE));
+		Rule list = Rule.seq(Rule.literal(UTF8.bytes("[")), Rule.alt(
+				Rule.seq(a, Rule.literal(UTF8.bytes("!"))),
+				Rule.seq(Rule.literal(UTF8.bytes("a")), a, Rule.literal(UTF8.bytes("]"))))).is("list");
+		Grammar grammar = new Grammar(list);
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("[aaa]"));
+		Checkpoints checkpoints = Checkpoints.of(grammar, 1, "list");
+		ParseTree tree = new ParseTree(grammar, 4).checkpoint(checkpoints);
+		assertEquals(5, Parser.parse(grammar.rule("list"), tree, input));
+		assertEquals(2, checkpoints.count());
+		for (int c = 0; c < 2; c++) {
+			assertEquals(3+c, checkpoints.offset(c));
+			assertEquals(1, checkpoints.node(c));
+		}
+	}
+
+	@Test
+	public void onlyRepetitionsWithinTheGivenRules() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("{\"abc\": [\"defgh\", 12345]}"));
+		Checkpoints checkpoints = Checkpoints.of(json, 1, "array");
+		ParseTree tree = new ParseTree(json, 64).checkpoint(checkpoints);
+		Parser.parse(json.rule("json"), tree, input);
+		assertEquals(1, checkpoints.count()); // after 12345 but not in strings or numbers
+		assertEquals(23, checkpoints.offset(0));
+	}
+
+	/**
+	 * @return the index of the ancestor of the node at the given level
+	 */
+	private static int ancestor(ParseTree tree, int node, int level) {
+		int a = node - 1;
+		while (tree.level(a) != level) {
+			a--;
+		}
+		return a;
+	}
+}
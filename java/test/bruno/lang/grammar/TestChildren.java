@@ -0,0 +1,80 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestChildren {
+
+	@Test
+	public void childrenOfArray() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < 1000; i++) {
+			b.append(i > 0 ? "," : "").append(i % 3 == 0 ? "{\"a\":[1,2,{\"b\":3}]}" : String.valueOf(i));
+		}
+		b.append(']');
+		IndexOverlayedFile file = IndexOverlayedFile.parse(ByteBuffer.wrap(UTF8.bytes(b.toString())), json, "json");
+		ParseTree tree = file.indexOverlay;
+		NodeIndex nodes = file.nodes();
+		int array = 1;
+		assertEquals("array", tree.rule(array).name);
+		int[] expected = scan(tree, array);
+		assertEquals(1000, expected.length);
+		assertArrayEquals(expected, nodes.children(array, false).toArray());
+		assertArrayEquals(expected, nodes.children(array, true).toArray());
+		assertEquals(1000, nodes.children(array, true).filter(i -> tree.rule(i).name == "json").count());
+		assertArrayEquals(new int[] { 0 }, nodes.children(-1, true).toArray());
+	}
+
+	@Test
+	public void splitsOnSubtreeBoundaries() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		IndexOverlayedFile file = IndexOverlayedFile.read("_data/example.json", json, "file");
+		NodeIndex nodes = file.nodes();
+		ParseTree tree = file.indexOverlay;
+		for (int parent = 0; parent < tree.count(); parent++) {
+			List<Children> parts = new ArrayList<>();
+			split(nodes.children(parent), parts);
+			List<Integer> children = new ArrayList<>();
+			for (Children part : parts) {
+				part.forEachRemaining((int i) -> children.add(i));
+			}
+			int[] actual = new int[children.size()];
+			for (int i = 0; i < actual.length; i++) {
+				actual[i] = children.get(i);
+			}
+			assertArrayEquals(scan(tree, parent), actual);
+		}
+	}
+
+	private static void split(Children children, List<Children> parts) {
+		Children prefix = children.trySplit();
+		if (prefix != null) {
+			split(prefix, parts);
+			split(children, parts);
+		} else {
+			parts.add(children);
+		}
+	}
+
+	private static int[] scan(ParseTree tree, int parent) {
+		List<Integer> children = new ArrayList<>();
+		for (int i = parent+1; i < tree.count() && tree.level(i) > tree.level(parent); i++) {
+			if (tree.level(i) == tree.level(parent)+1) {
+				children.add(i);
+			}
+		}
+		int[] res = new int[children.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = children.get(i);
+		}
+		return res;
+	}
+}
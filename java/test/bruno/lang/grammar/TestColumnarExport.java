@@ -0,0 +1,82 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+public class TestColumnarExport {
+
+	@Test
+	public void exportWithTexts() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(Paths.get("_data/example.json")));
+		Symbols symbols = Symbols.of(json, "name");
+		ParseTree tree = new ParseTree(json, 1024).intern(symbols);
+		Parser.parse(json.rule("file"), tree, input);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ColumnarExport.write(tree, Channels.newChannel(bytes), 10);
+		ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(0, in.limit() % 8);
+		assertEquals(ColumnarExport.MAGIC, in.getInt());
+		assertEquals(ColumnarExport.VERSION, in.getInt());
+		assertEquals(ColumnarExport.TEXTS, in.getInt());
+		assertEquals(tree.count(), in.getInt());
+		assertEquals(10, in.getInt());
+		int rules = in.getInt();
+		assertEquals(json.symbols(), rules);
+		for (int id = 1; id <= rules; id++) {
+			byte[] name = new byte[in.getInt()];
+			in.get(name);
+			assertEquals(json.rule(id).name, new String(name, UTF8.CHARSET));
+		}
+		align(in);
+		int node = 0;
+		int rows;
+		while ((rows = in.getInt()) > 0) {
+			align(in);
+			int[][] columns = new int[5][rows];
+			for (int[] column : columns) {
+				for (int i = 0; i < rows; i++) {
+					column[i] = in.getInt();
+				}
+				align(in);
+			}
+			for (int i = 0; i < rows; i++, node++) {
+				assertEquals(tree.id(node), columns[0][i]);
+				assertEquals(tree.level(node), columns[1][i]);
+				assertEquals(tree.start(node), columns[2][i]);
+				assertEquals(tree.end(node), columns[3][i]);
+				assertEquals(tree.symbol(node), columns[4][i]);
+			}
+		}
+		assertEquals(tree.count(), node);
+		align(in);
+		int count = in.getInt();
+		assertEquals(symbols.count(), count);
+		int[] offsets = new int[count+1];
+		for (int i = 0; i <= count; i++) {
+			offsets[i] = in.getInt();
+		}
+		align(in);
+		int texts = in.position();
+		for (int s = 1; s <= count; s++) {
+			byte[] text = new byte[offsets[s] - offsets[s-1]];
+			in.position(texts + offsets[s-1]);
+			in.get(text);
+			assertEquals(symbols.string(s), new String(text, UTF8.CHARSET));
+		}
+	}
+
+	private static void align(ByteBuffer in) {
+		in.position((in.position() + 7) & ~7);
+	}
+}
@@ -0,0 +1,74 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+public class TestDeferredTree {
+
+	@Test
+	public void outlineAndExpand() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("{\"a\": \"}\", \"b\": [1, {\"c\": \"\\\"}\"}], \"d\": {}}"));
+		DeferredTree tree = DeferredTree.parse(json, "json", input, Deferred.of(json, "object", "array"));
+		assertEquals(2, tree.outline.count()); // json > object
+		assertTrue(tree.isDeferred(1));
+		assertEquals(input.limit(), tree.outline.end(1));
+		DeferredTree object = tree.expand(1);
+		assertSame(object, tree.expand(1));
+		assertFalse(object.isDeferred(0));
+		int array = -1;
+		for (int i = 0; i < object.outline.count(); i++) {
+			if (object.outline.rule(i).name == "array") {
+				array = i;
+			}
+		}
+		assertTrue(object.isDeferred(array));
+		DeferredTree elements = object.expand(array);
+		int last = elements.outline.count()-1; // array > json > object
+		assertEquals(2, elements.outline.level(last));
+		assertTrue(elements.isDeferred(last));
+		assertSameTree(IndexOverlayedFile.parse(input, json, "json").indexOverlay, tree.expandAll());
+	}
+
+	@Test
+	public void expandAllEqualsFullParse() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(Paths.get("_data/example.json")));
+		DeferredTree tree = DeferredTree.parse(json, "file", input, Deferred.of(json, "object", "array"));
+		assertEquals(3, tree.outline.count());
+		assertSameTree(IndexOverlayedFile.parse(input, json, "file").indexOverlay, tree.expandAll());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void notBracketed() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Deferred.of(json, "member");
+	}
+
+	@Test(expected = ParseException.class)
+	public void invalidBodyFailsOnExpand() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("[1, {\"a\" 1}]"));
+		DeferredTree tree = DeferredTree.parse(json, "json", input, Deferred.of(json, "object"));
+		tree.expandAll();
+	}
+
+	static void assertSameTree(ParseTree expected, ParseTree actual) {
+		assertEquals(expected.count(), actual.count());
+		for (int i = 0; i < expected.count(); i++) {
+			assertEquals(expected.id(i), actual.id(i));
+			assertEquals(expected.level(i), actual.level(i));
+			assertEquals(expected.start(i), actual.start(i));
+			assertEquals(expected.end(i), actual.end(i));
+		}
+	}
+}
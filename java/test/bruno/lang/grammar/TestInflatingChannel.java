@@ -0,0 +1,103 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class TestInflatingChannel {
+
+	@Test
+	public void recordsOfGzippedNdjson() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			b.append("{\"id\": ").append(i).append(", \"tags\": [\"a\", \"b\"]}\n");
+		}
+		InflatingChannel in = new InflatingChannel(new ByteArrayInputStream(gzip(UTF8.bytes(b.toString()))), 3, 1000);
+		RecordReader reader = new RecordReader(in, json, "json", 256);
+		long ids = 0;
+		while (reader.next()) {
+			ParseTree tree = reader.tree();
+			ids += Numbers.parseLong(reader.input(), tree.start(5), tree.end(5)); // json > object > member > name, json > number
+		}
+		in.close();
+		assertEquals(2000, reader.records());
+		assertEquals(1999 * 2000 / 2, ids);
+	}
+
+	@Test
+	public void pushParserFedFromChannel() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		byte[] doc = UTF8.bytes("[\"a\", [1, 2, 3], {\"b\": null}]");
+		InflatingChannel in = new InflatingChannel(new ByteArrayInputStream(gzip(doc)), 2, 7);
+		PushParser p = new PushParser(json, "json");
+		ByteBuffer chunk = ByteBuffer.allocate(5);
+		while (in.read(chunk) >= 0) {
+			chunk.flip();
+			p.feed(chunk);
+			chunk.clear();
+		}
+		assertEquals(doc.length, p.end());
+	}
+
+	@Test(expected = IOException.class)
+	public void corruptInputFailsReading() throws IOException {
+		byte[] gz = gzip(new byte[10000]);
+		byte[] cut = Arrays.copyOf(gz, gz.length / 2);
+		Arrays.fill(cut, 12, cut.length, (byte) 0x55);
+		InflatingChannel in = new InflatingChannel(new ByteArrayInputStream(cut), 2, 64);
+		ByteBuffer dst = ByteBuffer.allocate(64);
+		while (in.read(dst) >= 0) {
+			dst.clear();
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void failingInflaterFailsReading() throws IOException {
+		final RuntimeException failure = new IllegalStateException("broken");
+		final ByteArrayInputStream gz = new ByteArrayInputStream(gzip(new byte[10000]));
+		InputStream broken = new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				throw failure;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (gz.available() < 20) {
+					throw failure;
+				}
+				return gz.read(b, off, 1);
+			}
+		};
+		InflatingChannel in = new InflatingChannel(broken, 2, 64);
+		ByteBuffer dst = ByteBuffer.allocate(64);
+		try {
+			while (in.read(dst) >= 0) {
+				dst.clear();
+			}
+			fail("Expected the failure of the inflater");
+		} catch (IOException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+			gz.write(bytes);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,96 @@
+package bruno.lang.grammar;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestJsonBinder {
+
+	@Test
+	public void valuesOfJson() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Object value = new JsonBinder(json).parse(ByteBuffer.wrap(UTF8.bytes(
+				"{\"a\": [1.5, -2, \"x\\\"y\\u00e9\", true, null, {}], \"b\": [], \"c\": false, \"d\": 12345678901234567890} ")));
+		assertTrue(value instanceof Map);
+		Map<?, ?> object = (Map<?, ?>) value;
+		assertEquals(asList("a", "b", "c", "d"), asList(object.keySet().toArray()));
+		assertEquals(asList(1.5d, -2L, "x\"y\u00e9", true, null, Collections.emptyMap()), object.get("a"));
+		assertEquals(Collections.emptyList(), object.get("b"));
+		assertEquals(Boolean.FALSE, object.get("c"));
+		assertEquals(12345678901234567890d, object.get("d"));
+	}
+
+	@Test
+	public void onlyTheRootIsKept() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(Paths.get("_data/example.json")));
+		ParseTree tree = new ParseTree(json, 16).bind(new JsonBinder(json));
+		assertEquals(input.limit(), Parser.parse(json.rule("file"), tree, input));
+		assertEquals(1, tree.count());
+		assertTrue(tree.value(0) instanceof Map);
+	}
+
+	@Test
+	public void scalarDocument() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		JsonBinder binder = new JsonBinder(json);
+		assertEquals(42L, binder.parse(ByteBuffer.wrap(UTF8.bytes("42"))));
+		assertNull(binder.parse(ByteBuffer.wrap(UTF8.bytes("null"))));
+		assertEquals("\n", binder.parse(ByteBuffer.wrap(UTF8.bytes("\"\\n\""))));
+		List<?> list = (List<?>) binder.parse(ByteBuffer.wrap(UTF8.bytes("[[1], [2]]")));
+		assertEquals(asList(asList(1L), asList(2L)), list);
+	}
+
+	@Test
+	public void valuesOfRemovedNodesAreReleased() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("1 2 3"));
+		ParseTree tree = new ParseTree(json, 4).bind(new JsonBinder(json));
+		for (int p = 0; p < 5; p += 2) {
+			tree.push(json.rule("number"), p);
+			tree.done(p+1, input);
+		}
+		assertEquals(3L, tree.value(2));
+		tree.erase(3); // backtracking
+		assertEquals(2, tree.count());
+		assertNull(tree.value(2));
+		tree.push(json.rule("array"), 4);
+		tree.pop();
+		tree.clear();
+		assertNull(tree.value(0));
+		assertNull(tree.value(1));
+	}
+
+	@Test(expected = ParseException.class)
+	public void notJson() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		new JsonBinder(json).parse(ByteBuffer.wrap(UTF8.bytes("[1] x")));
+	}
+
+	@Test
+	public void numberThatIsNone() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		JsonBinder binder = new JsonBinder(json);
+		for (String doc : new String[] { "[1, -]", "[1, -.]" }) {
+			try {
+				binder.parse(ByteBuffer.wrap(UTF8.bytes(doc)));
+				fail("Expected a parse exception for: "+doc);
+			} catch (ParseException e) {
+				assertEquals(4, e.determinationPosition);
+				assertEquals(doc.length()-1, e.errorPosition);
+			}
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+public class TestLargeFile {
+
+	@Test
+	public void recordsAcrossRegions() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			b.append("{\"id\": ").append(i).append(", \"tags\": [\"a\", \"b\"]}\n");
+		}
+		final byte[] bytes = UTF8.bytes(b.toString());
+		Path file = Files.createTempFile("large", ".ndjson");
+		try {
+			Files.write(file, bytes);
+			LongParseTree index;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				index = LargeFile.index(channel, json, "json", 100);
+			}
+			assertEquals(300, index.records());
+			ParseTree whole = new ParseTree(json, bytes.length);
+			ByteBuffer input = ByteBuffer.wrap(bytes);
+			int n = 0;
+			for (int p = 0; p < bytes.length; p = whole.end(0) + 1) {
+				whole.clear();
+				Parser.parse(json.rule("json"), whole, input, p);
+				for (int i = 0; i < whole.count(); i++, n++) {
+					assertEquals(whole.id(i), index.id(n));
+					assertEquals(whole.level(i), index.level(n));
+					assertEquals(whole.start(i), index.start(n));
+					assertEquals(whole.end(i), index.end(n));
+				}
+			}
+			assertEquals(n, index.count());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void recordLargerThanRegion() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Path file = Files.createTempFile("large", ".ndjson");
+		try {
+			Files.write(file, UTF8.bytes("[1, 2, 3, 4, 5, 6, 7, 8, 9]\n1\n"));
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				LargeFile.index(channel, json, "json", 16);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = ParseException.class)
+	public void invalidRecordBeforeEndOfRegion() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Path file = Files.createTempFile("large", ".ndjson");
+		try {
+			Files.write(file, UTF8.bytes("[1]\n{1}\n[2]\n[3]\n[4]\n[5]\n[6]\n[7]\n"));
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				LargeFile.index(channel, json, "json", 16);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestLineIndex {
+
+	@Test
+	public void linesAndColumns() {
+		LineIndex lines = LineIndex.of(ByteBuffer.wrap(UTF8.bytes("first\nsecond line\r\n\nlast line without end")));
+		assertEquals(4, lines.lines());
+		assertEquals(0, lines.line(0));
+		assertEquals(0, lines.line(5));
+		assertEquals(1, lines.line(6));
+		assertEquals(1, lines.line(18));
+		assertEquals(2, lines.line(19));
+		assertEquals(3, lines.line(20));
+		assertEquals(4, lines.column(24));
+		assertEquals(24, lines.position(3, 4));
+		assertEquals(6, lines.end(0));
+		assertEquals(41, lines.end(3));
+	}
+
+	@Test
+	public void linesOfLongInput() {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			b.append("line ").append(i).append('\n');
+		}
+		String input = b.toString();
+		LineIndex lines = LineIndex.of(ByteBuffer.wrap(UTF8.bytes(input)));
+		assertEquals(101, lines.lines());
+		int pos = input.indexOf("line 42");
+		assertEquals(42, lines.line(pos));
+		assertEquals(0, lines.column(pos));
+		assertEquals(42, lines.line(pos+6));
+		assertEquals(6, lines.column(pos+6));
+	}
+
+	@Test
+	public void deepestNodeAtPosition() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.json", json, "file");
+		ParseTree tree = example.indexOverlay;
+		int pos = example.lines().position(7, 18); // "S" in "title":"S"
+		int node = example.nodeAt(pos);
+		assertEquals("string", tree.rule(node).name);
+		assertEquals(pos-1, tree.start(node));
+		assertEquals("member", tree.rule(example.nodes().parent(example.nodes().parent(node))).name);
+		assertEquals("object", tree.rule(example.nodeAt(0)).name);
+		assertEquals(-1, example.nodeAt(737));
+	}
+
+	@Test
+	public void nodeAtEqualsScanForDeepestNode() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.json", json, "file");
+		ParseTree tree = example.indexOverlay;
+		for (int pos = 0; pos <= example.file.limit(); pos++) {
+			int deepest = -1;
+			for (int i = 0; i < tree.count(); i++) {
+				if (tree.start(i) <= pos && pos < tree.end(i) && (deepest < 0 || tree.level(i) > tree.level(deepest))) {
+					deepest = i;
+				}
+			}
+			assertEquals(deepest, example.nodeAt(pos));
+		}
+	}
+}
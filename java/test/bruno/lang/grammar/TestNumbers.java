@@ -0,0 +1,114 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestNumbers {
+
+	@Test
+	public void longs() {
+		assertEquals(0L, parseLong("0"));
+		assertEquals(-42L, parseLong("-42"));
+		assertEquals(42L, parseLong("+42"));
+		assertEquals(1000000L, parseLong("1,000,000"));
+		assertEquals(1000000L, parseLong("1_000_000"));
+		assertEquals(Long.MAX_VALUE, parseLong(String.valueOf(Long.MAX_VALUE)));
+		assertEquals(Long.MIN_VALUE, parseLong(String.valueOf(Long.MIN_VALUE)));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void longOverflow() {
+		parseLong("9223372036854775808");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void longWithFraction() {
+		parseLong("1.5");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void longTrailingSeparator() {
+		parseLong("1_");
+	}
+
+	@Test
+	public void separatorsOnlyBetweenDigits() {
+		for (String e : new String[] { "1_", "_1", "1__0", "-_1", "1,", "1_.5", "1._5", "1.5_", "1_e5" }) {
+			try {
+				parseDouble(e);
+				fail(e);
+			} catch (NumberFormatException ex) {
+				// expected
+			}
+			try {
+				parseLong(e);
+				fail(e);
+			} catch (NumberFormatException ex) {
+				// expected
+			}
+		}
+		assertEquals(1000.5, parseDouble("1_0_0_0.5"), 0d);
+		assertEquals(1.25, parseDouble("1.2_5"), 0d);
+	}
+
+	@Test
+	public void doubles() {
+		String[] examples = { "0", "-0", "0.0", "1", "1.5", "-2.25", ".5", "3.", "123456789012345678901234567890",
+				"0.1", "0.3", "2.2250738585072014e-308", "4.9e-324", "2e-324", "1.7976931348623157e308", "1e309",
+				"9007199254740993", "9007199254740992.5", "1e23", "8.98846567431158e307", "2.4703282292062328e-324",
+				"7.2057594037927933e16", "0.000000000000000000000000000001", "1E-5", "1e+5" };
+		for (String e : examples) {
+			assertEquals(e, Double.doubleToLongBits(Double.parseDouble(e)), Double.doubleToLongBits(parseDouble(e)));
+		}
+		assertEquals(1000.5, parseDouble("1,000.5"), 0d);
+		assertEquals(-1000000.25, parseDouble("-1_000_000.25"), 0d);
+	}
+
+	@Test
+	public void randomDoubles() {
+		Random rnd = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			String s;
+			switch (i % 3) {
+			case 0: s = Double.toString(Double.longBitsToDouble(rnd.nextLong() & Long.MAX_VALUE)); break;
+			case 1: s = Double.toString(rnd.nextDouble() * Math.pow(10, rnd.nextInt(40) - 20)); break;
+			default: s = digits(rnd); break;
+			}
+			if (s.contains("N") || s.contains("I")) {
+				continue;
+			}
+			assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(parseDouble(s)));
+		}
+	}
+
+	private static String digits(Random rnd) {
+		StringBuilder b = new StringBuilder();
+		int n = 1 + rnd.nextInt(25);
+		int dot = rnd.nextInt(n+1);
+		for (int i = 0; i < n; i++) {
+			if (i == dot) {
+				b.append('.');
+			}
+			b.append((char)('0' + rnd.nextInt(10)));
+		}
+		if (rnd.nextBoolean()) {
+			b.append('e').append(rnd.nextInt(700) - 350);
+		}
+		return b.toString();
+	}
+
+	private static long parseLong(String s) {
+		byte[] bytes = UTF8.bytes(" "+s+" ");
+		return Numbers.parseLong(ByteBuffer.wrap(bytes), 1, bytes.length-1);
+	}
+
+	private static double parseDouble(String s) {
+		byte[] bytes = UTF8.bytes(" "+s+" ");
+		return Numbers.parseDouble(ByteBuffer.wrap(bytes), 1, bytes.length-1);
+	}
+}
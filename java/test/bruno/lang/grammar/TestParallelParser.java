@@ -0,0 +1,118 @@
+package bruno.lang.grammar;
+
+import static bruno.lang.grammar.TestDeferredTree.assertSameTree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class TestParallelParser {
+
+	@Test
+	public void recordsEqualSequentialParse() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder();
+		Random rnd = new Random(3);
+		for (int i = 0; i < 3000; i++) {
+			switch (rnd.nextInt(4)) {
+			case 0: b.append("{\"id\": ").append(i).append(", \"tags\": [\"a\", \"b\"]}\n"); break;
+			case 1: b.append("[\n").append(i).append(",\n").append(i).append("\n]\n"); break; // lines within a record look like records
+			case 2: b.append("\"x\\\"\\n").append(i).append("\"\n"); break;
+			default: b.append(i).append("\n");
+			}
+		}
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes(b.toString()));
+		ParseTree expected = sequential(json, input);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int chunk : new int[] { 50, 333, 4096, 1 << 20 }) {
+				assertSameTree(expected, ParallelParser.records(json, "json", input, pool, chunk));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = ParseException.class)
+	public void invalidRecord() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			b.append(i == 700 ? "{1}" : "[1]").append('\n');
+		}
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			ParallelParser.records(json, "json", ByteBuffer.wrap(UTF8.bytes(b.toString())), pool, 100);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void nestedEqualsFullParse() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < 900; i++) {
+			b.append(i == 0 ? "" : ", ").append("{\"id\": ").append(i).append(", \"s\": \"]}\\\"\", \"a\": [[").append(i).append("], {}]}");
+		}
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes(b.append("]\n").toString()));
+		ParseTree expected = IndexOverlayedFile.parse(input, json, "file").indexOverlay;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int minSize : new int[] { 1, 64, 1 << 20 }) {
+				ParseTree tree = ParallelParser.nested(json, "file", input, Deferred.of(json, "object", "array"), pool, minSize);
+				assertSameTree(expected, tree);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void scalarArrayInRanges() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < 900; i++) {
+			b.append(i == 0 ? "" : i % 7 == 0 ? " ,\n" : ", ").append(i % 5 == 0 ? "\"a, [b\\\", c\"" : String.valueOf(i * 31));
+		}
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes(b.append("]").toString()));
+		ParseTree expected = IndexOverlayedFile.parse(input, json, "file").indexOverlay;
+		DeferredTree tree = DeferredTree.parse(json, "file", input, Deferred.of(json, "object", "array"));
+		assertNotNull(tree.ranges(2, 64)); // file, json, array
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int minSize : new int[] { 1, 7, 64, 1000 }) {
+				assertSameTree(expected, ParallelParser.nested(json, "file", input, Deferred.of(json, "object", "array"), pool, minSize));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = ParseException.class)
+	public void nestedInvalidElement() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("[[1], [2], {\"a\" 1}, [3]]"));
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			ParallelParser.nested(json, "json", input, Deferred.of(json, "object", "array"), pool, 1);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static ParseTree sequential(Grammar grammar, ByteBuffer input) {
+		ParseTree tree = new ParseTree(grammar, 1024);
+		int p = ParallelParser.skipWhitespace(input, 0);
+		while (p < input.limit()) {
+			p = ParallelParser.skipWhitespace(input, Parser.parse(grammar.rule("json"), tree, input, p));
+		}
+		assertEquals(input.limit(), p);
+		return tree;
+	}
+}
@@ -0,0 +1,79 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestParseCache {
+
+	@Test
+	public void hitsOnEqualInput() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ParseCache cache = new ParseCache(1 << 20);
+		ParseTree first = cache.parse(json, "json", input("{\"a\": [1, 2]}"));
+		ParseTree second = cache.parse(json, "json", input("{\"a\": [1, 2]}"));
+		assertSame(first, second);
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+		ParseTree other = cache.parse(json, "json", input("{\"a\": [1, 3]}"));
+		assertNotSame(first, other);
+		assertEquals(2, cache.misses());
+		assertEquals(2, cache.entries());
+		// another grammar instance made from the same source
+		Grammar json2 = Alma.make("alma/prelude.alma", "alma/json.alma");
+		assertSame(first, cache.parse(json2, "json", input("{\"a\": [1, 2]}")));
+		assertEquals(2, cache.hits());
+
+		IndexOverlayedFile example = cache.read("_data/example.json", json, "file");
+		IndexOverlayedFile uncached = IndexOverlayedFile.read("_data/example.json", json, "file");
+		assertEquals(uncached.indexOverlay.count(), example.indexOverlay.count());
+		assertEquals(uncached.indexOverlay.toString(), example.indexOverlay.toString());
+		assertSame(example.indexOverlay, cache.read("_data/example.json", json, "file").indexOverlay);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ParseCache cache = new ParseCache(3 * 200);
+		ParseTree a = cache.parse(json, "json", input("[1]"));
+		cache.parse(json, "json", input("[2]"));
+		cache.parse(json, "json", input("[3]"));
+		assertSame(a, cache.parse(json, "json", input("[1]")));
+		cache.parse(json, "json", input("[4]"));
+		assertEquals(1, cache.evictions());
+		assertSame(a, cache.parse(json, "json", input("[1]"))); // [2] was evicted
+		assertEquals(3, cache.entries());
+		cache.parse(json, "json", input("[2]"));
+		assertEquals(5, cache.misses());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void sharedTreesAreFrozen() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ParseCache cache = new ParseCache(1 << 20);
+		ParseTree tree = cache.parse(json, "json", input("[1]"));
+		assertTrue(tree.isFrozen());
+		tree.erase(0);
+	}
+
+	@Test
+	public void fingerprintOfStructure() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		assertEquals(json.fingerprint(), Alma.make("alma/prelude.alma", "alma/json.alma").fingerprint());
+		assertNotEquals(json.fingerprint(), Alma.make("alma/prelude.alma", "alma/bruno.alma").fingerprint());
+		Grammar a = new Grammar(Grammar.Rule.literal(UTF8.bytes("a")).is("x"));
+		Grammar b = new Grammar(Grammar.Rule.literal(UTF8.bytes("b")).is("x"));
+		assertNotEquals(a.fingerprint(), b.fingerprint());
+	}
+
+	private static ByteBuffer input(String s) {
+		return ByteBuffer.wrap(UTF8.bytes(s));
+	}
+}
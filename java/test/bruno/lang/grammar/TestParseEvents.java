@@ -0,0 +1,141 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.junit.Test;
+
+public class TestParseEvents {
+
+	@Test
+	public void eventsInOrderOnDemand() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteArrayInputStream in = input("[1, 2, {\"a\": true}, 3]");
+		Collector events = new Collector();
+		new ParseEvents(Channels.newChannel(in), json, "json", 4).subscribe(events);
+		events.subscription.request(3);
+		assertEquals(3, events.events.size());
+		assertTrue(in.available() > 0); // parse paused
+		ParseEvents.Event first = events.events.get(0);
+		assertTrue(first.enter);
+		assertEquals(json.id("json"), first.rule);
+		assertEquals(0, first.start);
+		assertEquals(-1, first.end);
+		assertEquals(json.id("array"), events.events.get(1).rule);
+		events.subscription.request(Long.MAX_VALUE);
+		assertTrue(events.completed);
+		assertEquals(0, in.available());
+		int depth = 0;
+		for (ParseEvents.Event e : events.events) {
+			depth += e.enter ? 1 : -1;
+			assertTrue(depth >= 0);
+		}
+		assertEquals(0, depth);
+		ParseEvents.Event last = events.events.get(events.events.size()-1);
+		assertFalse(last.enter);
+		assertEquals(json.id("json"), last.rule);
+		assertEquals(0, last.start);
+		assertEquals(22, last.end);
+	}
+
+	@Test
+	public void sameNodesAsParser() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		String text = "{\"a\": [1, -2.5, null], \"b\": {\"c\": \"d\"}, \"e\": false}";
+		ParseTree tree = new ParseTree(json, 64);
+		Parser.parse(json.rule("json"), tree, ByteBuffer.wrap(UTF8.bytes(text)));
+		Collector events = new Collector();
+		new ParseEvents(Channels.newChannel(input(text)), json, "json", 3).subscribe(events);
+		events.subscription.request(Long.MAX_VALUE);
+		assertTrue(events.completed);
+		int node = 0;
+		int[] open = new int[tree.count()];
+		int top = -1;
+		for (ParseEvents.Event e : events.events) {
+			if (e.enter) {
+				assertEquals(tree.id(node), e.rule);
+				assertEquals(tree.start(node), e.start);
+				open[++top] = node++;
+			} else {
+				assertEquals(tree.end(open[top--]), e.end);
+			}
+		}
+		assertEquals(tree.count(), node);
+	}
+
+	@Test
+	public void nodesAreEnteredBeforeTheirEnd() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder text = new StringBuilder("[0");
+		for (int i = 1; i < 1000; i++) {
+			text.append(", ").append(i);
+		}
+		ByteArrayInputStream in = input(text.append("]").toString());
+		Collector events = new Collector();
+		new ParseEvents(Channels.newChannel(in), json, "json", 16).subscribe(events);
+		events.subscription.request(20);
+		assertEquals(20, events.events.size());
+		assertTrue(in.available() > text.length() / 2);
+	}
+
+	@Test
+	public void parseErrorIsSignalled() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Collector events = new Collector();
+		new ParseEvents(Channels.newChannel(input("[1, {1}]")), json, "json", 4).subscribe(events);
+		events.subscription.request(100);
+		assertTrue(events.error instanceof ParseException);
+		assertFalse(events.completed);
+	}
+
+	@Test
+	public void onlyOneSubscriber() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ParseEvents events = new ParseEvents(Channels.newChannel(input("1")), json, "json", 4);
+		events.subscribe(new Collector());
+		Collector second = new Collector();
+		events.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+
+	private static ByteArrayInputStream input(String text) {
+		return new ByteArrayInputStream(UTF8.bytes(text));
+	}
+
+	static final class Collector implements Flow.Subscriber<ParseEvents.Event> {
+
+		Flow.Subscription subscription;
+		final List<ParseEvents.Event> events = new ArrayList<>();
+		boolean completed;
+		Throwable error;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(ParseEvents.Event item) {
+			events.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+}
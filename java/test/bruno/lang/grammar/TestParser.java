@@ -1,12 +1,18 @@
 package bruno.lang.grammar;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
+import bruno.lang.grammar.Grammar.Rule;
+
 public class TestParser {
 
 	@Test
@@ -31,6 +37,79 @@ public class TestParser {
 		assertEquals(" this is another one", input.substring(tree.start(4), tree.end(4)));
 	}
 	
+	@Test
+	public void sequentialSegmentsWithoutTree() throws IOException {
+		Grammar bruno = Alma.make("alma/prelude.alma", "alma/bruno.alma");
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.lib", bruno, "module");
+		ParseTree tree = example.indexOverlay;
+		List<String> expected = new ArrayList<>();
+		recursive(tree, 0, expected);
+		final List<String> actual = new ArrayList<>();
+		tree.sequential(new ParseTree.Segments() {
+
+			@Override
+			public void segment(Rule rule, int level, int start, int end) {
+				actual.add(rule.name+" "+level+" "+start+" "+end);
+			}
+		});
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void sequentialSegmentsOfSmallTree() {
+		Rule a = Rule.literal(UTF8.bytes("a")).as("a");
+		Rule b = Rule.literal(UTF8.bytes("b")).as("b");
+		Rule c = Rule.literal(UTF8.bytes("c")).as("c");
+		ParseTree tree = new ParseTree(8);
+		tree.push(a, 0);
+		tree.push(b, 2);
+		tree.push(c, 3);
+		tree.done(4);
+		tree.done(6);
+		tree.push(c, 7);
+		tree.done(8);
+		tree.done(10);
+		final List<String> actual = new ArrayList<>();
+		tree.sequential(new ParseTree.Segments() {
+
+			@Override
+			public void segment(Rule rule, int level, int start, int end) {
+				actual.add(rule.name+" "+level+" "+start+" "+end);
+			}
+		});
+		assertEquals(Arrays.asList("a 0 0 2", "b -1 2 3", "c 2 3 4", "b -1 4 6", "a 0 6 7", "c 1 7 8", "a 0 8 10"), actual);
+		assertSame(b, tree.debug().rule(1));
+		assertEquals(tree.count(), tree.debug().count());
+	}
+
+	/**
+	 * The recursive algorithm {@link ParseTree#sequential(ParseTree.Segments)}
+	 * replaced, to compare with.
+	 */
+	private static int recursive(ParseTree tree, final int index, List<String> segments) {
+		final int level = tree.level(index);
+		final String name = tree.rule(index).name;
+		int i = index+1;
+		if (i >= tree.count() || tree.level(i) <= level) {
+			segments.add(name+" "+level+" "+tree.start(index)+" "+tree.end(index));
+			return i;
+		}
+		int start = tree.start(index);
+		while (i < tree.count() && tree.level(i) == level+1) {
+			final int s = tree.start(i);
+			if (s > start) {
+				segments.add(name+" "+(-level)+" "+start+" "+s);
+			}
+			i = recursive(tree, i, segments);
+			final String last = segments.get(segments.size()-1);
+			start = Integer.parseInt(last.substring(last.lastIndexOf(' ')+1));
+		}
+		if (tree.end(index) > start) {
+			segments.add(name+" "+(-level)+" "+start+" "+tree.end(index));
+		}
+		return i;
+	}
+	
 	/**
 	 * A minimal grammar for just comments to test completion feature.
 	 */
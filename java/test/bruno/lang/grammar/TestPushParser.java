@@ -0,0 +1,109 @@
+package bruno.lang.grammar;
+
+import static bruno.lang.grammar.TestDeferredTree.assertSameTree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPushParser {
+
+	@Test
+	public void jsonInRandomChunks() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		assertSameAsParser(json, "file", "_data/example.json");
+	}
+
+	@Test
+	public void xmlInRandomChunks() throws IOException {
+		Grammar xml = Alma.make("alma/prelude.alma", "alma/xml.alma");
+		assertSameAsParser(xml, "document", "_data/example.xml");
+	}
+
+	@Test
+	public void brunoInRandomChunks() throws IOException {
+		Grammar bruno = Alma.make("alma/prelude.alma", "alma/bruno.alma");
+		assertSameAsParser(bruno, "module", "_data/example.bruno");
+		assertSameAsParser(bruno, "module", "_data/example.lib");
+		assertSameAsParser(bruno, "expr", "_data/example.ast");
+	}
+
+	@Test
+	public void suspendsUntilInputIsComplete() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		PushParser p = new PushParser(json, "json");
+		assertFalse(p.feed(ByteBuffer.wrap(UTF8.bytes("{\"a\": [1, 2"))));
+		assertFalse(p.feed(ByteBuffer.wrap(UTF8.bytes("3]"))));
+		assertTrue(p.feed(ByteBuffer.wrap(UTF8.bytes("}"))));
+		assertEquals(14, p.end());
+		assertEquals("{\"a\": [1, 23]}", Text.of(p.input(), p.tree().start(0), p.tree().end(0)).toString());
+	}
+
+	@Test
+	public void manyParsesInFlight() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		byte[] doc = UTF8.bytes("{\"id\": 42, \"tags\": [\"a\", \"b\"], \"ok\": true}");
+		PushParser[] parsers = new PushParser[1000];
+		for (int i = 0; i < parsers.length; i++) {
+			parsers[i] = new PushParser(json, "json");
+		}
+		for (int b = 0; b < doc.length; b++) {
+			for (PushParser p : parsers) {
+				p.feed(ByteBuffer.wrap(doc, b, 1));
+			}
+		}
+		for (PushParser p : parsers) {
+			assertTrue(p.isDone());
+			assertEquals(doc.length, p.end());
+		}
+	}
+
+	@Test
+	public void deferredInChunks() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Deferred deferred = Deferred.of(json, "array");
+		byte[] bytes = Files.readAllBytes(Paths.get("_data/example.json"));
+		ParseTree expected = new ParseTree(json, bytes.length).defer(deferred);
+		Parser.parse(json.rule("file"), expected, ByteBuffer.wrap(bytes));
+		PushParser p = new PushParser(json.rule("file"), new ParseTree(json, 16).defer(deferred));
+		for (int i = 0; i < bytes.length; i += 3) {
+			p.feed(ByteBuffer.wrap(bytes, i, Math.min(3, bytes.length - i)));
+		}
+		assertEquals(bytes.length, p.end());
+		assertSameTree(expected, p.tree());
+	}
+
+	@Test(expected = ParseException.class)
+	public void decidedMismatch() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		PushParser p = new PushParser(json, "json");
+		p.feed(ByteBuffer.wrap(UTF8.bytes("[1, {\"a\" ")));
+		p.feed(ByteBuffer.wrap(UTF8.bytes("1}]")));
+		p.end();
+	}
+
+	private static void assertSameAsParser(Grammar grammar, String start, String file) throws IOException {
+		byte[] bytes = Files.readAllBytes(Paths.get(file));
+		ParseTree expected = new ParseTree(grammar, bytes.length);
+		int end = Parser.parse(grammar.rule(start), expected, ByteBuffer.wrap(bytes));
+		Random rnd = new Random(file.hashCode());
+		for (int run = 0; run < 5; run++) {
+			PushParser p = new PushParser(grammar, start);
+			int i = 0;
+			while (i < bytes.length) {
+				int n = Math.min(bytes.length - i, run == 0 ? 1 : 1 + rnd.nextInt(64));
+				p.feed(ByteBuffer.wrap(bytes, i, n));
+				i += n;
+			}
+			assertEquals(end, p.end());
+			assertSameTree(expected, p.tree());
+		}
+	}
+}
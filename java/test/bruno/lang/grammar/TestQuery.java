@@ -0,0 +1,89 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+public class TestQuery {
+
+	@Test
+	public void descendantAndChildAxis() throws IOException {
+		IndexOverlayedFile example = json();
+		assertEquals(2, select(example, "object > member[name='\"title\"'], member > json > string", 0).size());
+		assertEquals(9, select(example, "object > member[name='\"title\"'], member > json > string", 1).size());
+		assertEquals(4, select(example, "array *", 0).size());
+		assertEquals(2, select(example, "array > *", 0).size());
+	}
+
+	@Test
+	public void textPredicates() throws IOException {
+		IndexOverlayedFile example = json();
+		List<Integer> years = select(example, "member[name='\"year\"'] number", 0);
+		assertEquals(1, years.size());
+		assertEquals("number", example.indexOverlay.rule(years.get(0)).name);
+		assertEquals(1, select(example, "string[^='\"Standard'][$='Language\"']", 0).size());
+		assertEquals(5, select(example, "string[*='ML\"']", 0).size());
+		assertEquals(1, select(example, "> file", 0).size());
+		assertEquals(0, select(example, "> json", 0).size());
+	}
+
+	@Test
+	public void nestedSteps() throws IOException {
+		IndexOverlayedFile example = json();
+		assertEquals(1, select(example, "member[name='\"GlossDef\"'] member[name='\"GlossSeeAlso\"'] array", 0).size());
+		assertEquals(0, select(example, "array member", 0).size());
+	}
+
+	@Test
+	public void childPredicatesOnlyTestChildNodes() throws IOException {
+		IndexOverlayedFile doc = IndexOverlayedFile.parse(ByteBuffer.wrap(UTF8.bytes("{\"a\": {\"b\": 1, \"c\": [1]}, \"d\": 1}")), grammar(), "file");
+		List<Integer> members = select(doc, "member[json='1']", 0);
+		assertEquals(2, members.size());
+		assertEquals("\"b\"", Text.of(doc.file, doc.indexOverlay.start(members.get(0)+1), doc.indexOverlay.end(members.get(0)+1)).toString());
+		assertEquals("\"d\"", Text.of(doc.file, doc.indexOverlay.start(members.get(1)+1), doc.indexOverlay.end(members.get(1)+1)).toString());
+		assertEquals(0, select(doc, "object[member='1']", 0).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void illegalSelector() throws IOException {
+		Query.compile(grammar(), "object >> member");
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void unknownRule() throws IOException {
+		Query.compile(grammar(), "object > missing");
+	}
+
+	private static Grammar json;
+
+	private static Grammar grammar() throws IOException {
+		if (json == null) {
+			json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		}
+		return json;
+	}
+
+	private static IndexOverlayedFile json() throws IOException {
+		return IndexOverlayedFile.read("_data/example.json", grammar(), "file");
+	}
+
+	private static List<Integer> select(IndexOverlayedFile file, String selectors, final int selector) throws IOException {
+		final List<Integer> matches = new ArrayList<>();
+		Query.compile(grammar(), selectors).run(file, new Query.Matches() {
+
+			@Override
+			public void match(int s, int index) {
+				if (s == selector) {
+					matches.add(index);
+				}
+			}
+		});
+		return matches;
+	}
+}
@@ -0,0 +1,128 @@
+package bruno.lang.grammar;
+
+import static bruno.lang.grammar.TestDeferredTree.assertSameTree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestRecordReader {
+
+	@Test
+	public void recordsOfNdjson() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder b = new StringBuilder();
+		Random rnd = new Random(42);
+		for (int i = 0; i < 500; i++) {
+			switch (rnd.nextInt(3)) {
+			case 0: b.append("{\"id\": ").append(i).append(", \"tags\": [\"a\", \"b\"]}"); break;
+			case 1: b.append('[').append(rnd.nextInt(100000)).append(", true, null]"); break;
+			default: b.append(rnd.nextInt(1000000));
+			}
+			b.append(i % 7 == 0 ? "\r\n" : "\n");
+		}
+		final String[] lines = b.toString().split("\r?\n");
+		final byte[] bytes = UTF8.bytes(b.toString());
+		RecordReader reader = new RecordReader(trickle(bytes, rnd), json, "json", 256);
+		int n = 0;
+		while (reader.next()) {
+			ParseTree tree = reader.tree();
+			ByteBuffer line = ByteBuffer.wrap(UTF8.bytes(lines[n]));
+			assertEquals(lines[n], Text.of(reader.input(), tree.start(0), tree.end(0)).toString());
+			assertEquals(b.indexOf(lines[n], (int) reader.offset()), reader.offset() + tree.start(0));
+			ParseTree expected = IndexOverlayedFile.parse(line, json, "json").indexOverlay;
+			assertSameTree(expected, shifted(tree, -tree.start(0)));
+			n++;
+		}
+		assertEquals(lines.length, n);
+		assertEquals(n, reader.records());
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void lastRecordWithoutSeparator() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		RecordReader reader = new RecordReader(channel("1\n22\n333"), json, "json", 16);
+		final int[] ends = new int[3];
+		final int[] n = new int[1];
+		reader.forEach(new RecordReader.Records() {
+
+			@Override
+			public void record(ParseTree tree, ByteBuffer input, long offset) {
+				ends[n[0]++] = (int) (offset + tree.end(0));
+			}
+		});
+		assertEquals(3, n[0]);
+		assertEquals(8, ends[2]);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void recordLargerThanWindow() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		RecordReader reader = new RecordReader(channel("[1, 2, 3, 4, 5, 6, 7, 8, 9]\n"), json, "json", 16);
+		reader.next();
+	}
+
+	@Test(expected = ParseException.class)
+	public void invalidRecord() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		RecordReader reader = new RecordReader(channel("[1]\n{1}\n"), json, "json", 64);
+		reader.next();
+		reader.next();
+	}
+
+	private static ParseTree shifted(ParseTree tree, int offset) {
+		ParseTree moved = new ParseTree(tree.rules(), tree.count());
+		for (int i = 0; i < tree.count(); i++) {
+			moved.append(tree.rule(i), tree.level(i), tree.start(i) + offset, tree.end(i) + offset);
+		}
+		return moved;
+	}
+
+	@Test(expected = ParseException.class)
+	public void invalidRecordBeforeEndOfInput() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder text = new StringBuilder("[1]\n{1}\n");
+		for (int i = 0; i < 100; i++) {
+			text.append("[").append(i).append("]\n");
+		}
+		RecordReader reader = new RecordReader(channel(text.toString()), json, "json", 16);
+		while (reader.next()) {
+			// the second record is invalid
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nonBlockingChannel() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		new RecordReader(pipe.source(), json, "json", 16);
+	}
+
+	private static ReadableByteChannel channel(String text) {
+		return Channels.newChannel(new ByteArrayInputStream(UTF8.bytes(text)));
+	}
+
+	/**
+	 * A channel returning just a few bytes on each read.
+	 */
+	private static ReadableByteChannel trickle(byte[] bytes, final Random rnd) {
+		return Channels.newChannel(new ByteArrayInputStream(bytes) {
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1 + rnd.nextInt(40)));
+			}
+		});
+	}
+}
@@ -0,0 +1,44 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestRuleIndex {
+
+	@Test
+	public void nodesByRule() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.json", json, "file");
+		ParseTree tree = example.indexOverlay;
+		RuleIndex rules = example.rules();
+		int total = 0;
+		for (int id = 1; id <= json.symbols(); id++) {
+			int n = 0;
+			for (int i = 0; i < tree.count(); i++) {
+				if (tree.id(i) == id) {
+					assertEquals(i, rules.node(id, n++));
+				}
+			}
+			assertEquals(n, rules.count(id));
+			assertEquals(n, rules.nodes(id).length);
+			total += n;
+		}
+		assertEquals(tree.count(), total);
+		int string = json.id("string");
+		assertSame("string", tree.rule(rules.node(string, 0)).name);
+		assertEquals(0, rules.count(json.symbols()+1));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void missingNode() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.json", json, "file");
+		RuleIndex rules = example.rules();
+		int file = json.id("file");
+		rules.node(file, rules.count(file));
+	}
+}
@@ -0,0 +1,84 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestSubtrees {
+
+	@Test
+	public void equalSubtreesHaveEqualHashes() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("[{\"a\": [1, 2]}, {\"a\":[1,2]}, {\"a\": [1, 3]}, {\"a\": [1, 2]}]"));
+		ParseTree tree = parse(json, input);
+		Subtrees subtrees = Subtrees.of(tree, input);
+		RuleIndex rules = RuleIndex.of(tree);
+		int object = json.id("object");
+		assertEquals(4, rules.count(object));
+		int first = rules.node(object, 0);
+		int second = rules.node(object, 1);
+		int third = rules.node(object, 2);
+		int fourth = rules.node(object, 3);
+		assertEquals(subtrees.hash(first), subtrees.hash(fourth));
+		assertTrue(subtrees.identical(first, fourth));
+		assertNotEquals(subtrees.hash(first), subtrees.hash(second)); // different whitespace
+		assertNotEquals(subtrees.hash(first), subtrees.hash(third));
+		assertFalse(subtrees.identical(first, third));
+		assertEquals(tree.count(), subtrees.size(0));
+
+		Subtrees.Compact compact = subtrees.compact();
+		assertEquals(tree.count(), compact.count());
+		assertTrue(compact.entries() < tree.count() - subtrees.size(fourth) + 1);
+		int last = compact.entries() - 1; // the json node of the fourth object
+		assertTrue(compact.reference(last) >= 0);
+		assertEquals(json.id("json"), compact.id(last));
+		assertEquals(tree.start(fourth), compact.start(last));
+		assertSame(tree, compact.expand());
+	}
+
+	@Test
+	public void sameHashesForTreesOfLearnedRules() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("[true, {\"a\": [1, null]}, \"b\"]"));
+		ParseTree known = parse(json, input);
+		ParseTree learned = new ParseTree(16); // keys in the order rules are first pushed
+		assertEquals(input.limit(), Parser.parse(json.rule("json"), learned, input));
+		assertNotEquals(known.key(2), learned.key(2));
+		Subtrees a = Subtrees.of(known, input);
+		Subtrees b = Subtrees.of(learned, input);
+		assertEquals(known.count(), learned.count());
+		for (int i = 0; i < known.count(); i++) {
+			assertEquals(a.hash(i), b.hash(i));
+		}
+	}
+
+	@Test
+	public void compactExample() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.json", json, "file");
+		Subtrees subtrees = Subtrees.of(example.indexOverlay, example.file);
+		assertSame(example.indexOverlay, subtrees.compact().expand());
+	}
+
+	private static ParseTree parse(Grammar grammar, ByteBuffer input) {
+		ParseTree tree = new ParseTree(grammar, 256);
+		Parser.parse(grammar.rule("json"), tree, input);
+		return tree;
+	}
+
+	private static void assertSame(ParseTree expected, ParseTree actual) {
+		assertEquals(expected.count(), actual.count());
+		for (int i = 0; i < expected.count(); i++) {
+			assertEquals(expected.id(i), actual.id(i));
+			assertEquals(expected.level(i), actual.level(i));
+			assertEquals(expected.start(i), actual.start(i));
+			assertEquals(expected.end(i), actual.end(i));
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestSymbols {
+
+	@Test
+	public void internNamesWhileParsing() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(Paths.get("_data/example.json")));
+		Symbols symbols = Symbols.of(json, "name");
+		ParseTree tree = new ParseTree(json, 1024).intern(symbols);
+		Parser.parse(json.rule("file"), tree, input);
+		final int name = json.id("name");
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < tree.count(); i++) {
+			if (tree.id(i) == name) {
+				String text = Text.of(input, tree.start(i), tree.end(i)).toString();
+				int symbol = tree.symbol(i);
+				assertTrue(symbol > 0);
+				assertEquals(text, symbols.string(symbol));
+				if (ids.containsKey(text)) {
+					assertEquals(ids.get(text).intValue(), symbol);
+				}
+				ids.put(text, symbol);
+				assertEquals(symbol, symbols.symbol(input, tree.start(i), tree.end(i)));
+			} else {
+				assertEquals(0, tree.symbol(i));
+			}
+		}
+		assertEquals(ids.size(), symbols.count());
+	}
+
+	@Test
+	public void noSymbolsOfErasedNodes() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("\"a\" 1"));
+		ParseTree tree = new ParseTree(json, 4).intern(Symbols.of(json, "string"));
+		tree.push(json.rule("string"), 0);
+		tree.done(3, input);
+		assertEquals(1, tree.symbol(0));
+		tree.erase(0); // backtracking
+		tree.push(json.rule("number"), 4);
+		tree.done(5, input);
+		assertEquals(0, tree.symbol(0));
+		tree.clear();
+		tree.push(json.rule("string"), 0);
+		tree.done(3, input);
+		tree.clear();
+		tree.push(json.rule("number"), 4);
+		tree.done(5, input);
+		assertEquals(0, tree.symbol(0));
+	}
+
+	@Test
+	public void manySymbols() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Symbols symbols = Symbols.of(json, "string");
+		ByteBuffer in = ByteBuffer.wrap(UTF8.bytes("abcdefghijklmnopqrstuvwxyz"));
+		for (int s = 0; s < 26; s++) {
+			for (int e = s; e <= 26; e++) {
+				symbols.intern(in, s, e);
+			}
+		}
+		assertEquals(26*27/2 + 1, symbols.count()); // all empty ranges are one symbol
+		assertEquals("cde", symbols.string(symbols.symbol(in, 2, 5)));
+		assertEquals(0, symbols.symbol(ByteBuffer.wrap(UTF8.bytes("abd")), 0, 3));
+	}
+}
@@ -0,0 +1,63 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+public class TestTail {
+
+	@Test
+	public void parsesOnlyAppendedRecords() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Path file = Files.createTempFile("tail", ".ndjson");
+		try {
+			Tail tail = new Tail(file, json, "json", 64);
+			assertEquals(0, tail.poll());
+			append(file, "{\"a\": 1}\n[1, 2]\n{\"b\": ");
+			assertEquals(2, tail.poll());
+			assertEquals(16L, tail.committed());
+			append(file, "[true]}");
+			assertEquals(0, tail.poll()); // not yet followed by a line break
+			append(file, "\n12");
+			assertEquals(1, tail.poll());
+			assertEquals(30L, tail.committed());
+			append(file, "3\n");
+			assertEquals(1, tail.poll());
+			LongParseTree index = tail.index();
+			assertEquals(4, index.records());
+			int last = index.count()-2; // json > number
+			assertEquals(30L, index.start(last));
+			assertEquals(33L, index.end(last));
+			StringBuilder b = new StringBuilder();
+			for (int i = 0; i < 100; i++) {
+				b.append("{\"i\": ").append(i).append("}\n");
+			}
+			append(file, b.toString());
+			assertEquals(100, tail.poll());
+			assertEquals(Files.size(file), tail.committed());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = ParseException.class)
+	public void invalidRecordBeforeEnd() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		Path file = Files.createTempFile("tail", ".ndjson");
+		try {
+			append(file, "[1]\n{1}\n[2]\n");
+			new Tail(file, json, "json").poll();
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static void append(Path file, String text) throws IOException {
+		Files.write(file, UTF8.bytes(text), StandardOpenOption.APPEND);
+	}
+}
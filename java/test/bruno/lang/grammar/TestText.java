@@ -0,0 +1,52 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestText {
+
+	@Test
+	public void asciiText() {
+		ByteBuffer in = ByteBuffer.wrap(UTF8.bytes("{\"name\":\"value\", \"names\":\"value\"}"));
+		Text name = Text.of(in, 1, 7);
+		assertEquals("\"name\"", name.toString());
+		assertEquals(6, name.length());
+		assertEquals('n', name.charAt(1));
+		assertTrue(name.contentEquals("\"name\""));
+		assertTrue(name.startsWith(UTF8.bytes("\"na")));
+		assertTrue(name.endsWith(UTF8.bytes("e\"")));
+		Text value = Text.of(in, 8, 15);
+		Text other = Text.of(in).at(25, 32);
+		assertEquals(value, other);
+		assertEquals(value.hashCode(), other.hashCode());
+		assertEquals(0, value.compareTo(other));
+		Text names = Text.of(in, 17, 24);
+		assertFalse(name.equals(names));
+		assertTrue(names.startsWith(Text.of(in, 1, 6)));
+		assertTrue(name.compareTo(names) < 0);
+		assertEquals("name", name.subSequence(1, 5).toString());
+	}
+
+	@Test
+	public void multiByteText() {
+		String s = "aä€😀z";
+		ByteBuffer in = ByteBuffer.allocateDirect(20);
+		in.put(UTF8.bytes(s));
+		Text text = Text.of(in, 0, in.position());
+		assertEquals(s.length(), text.length());
+		for (int i = 0; i < s.length(); i++) {
+			assertEquals(s.charAt(i), text.charAt(i));
+		}
+		assertEquals(s.charAt(2), text.charAt(2));
+		assertEquals(s, text.toString());
+		assertTrue(text.contentEquals(s));
+		assertFalse(text.contentEquals(s.substring(1)));
+		assertEquals(s.substring(2, 5), text.subSequence(2, 5).toString());
+		assertTrue(Text.of(in, 1, 3).compareTo(Text.of(in, 0, 1)) > 0);
+	}
+}
@@ -0,0 +1,84 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestTreeCursor {
+
+	@Test
+	public void walkingAllNodesOfParseTree() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		IndexOverlayedFile example = IndexOverlayedFile.read("_data/example.json", json, "file");
+		TreeCursor cursor = TreeCursor.of(example.indexOverlay);
+		assertEquals(example.indexOverlay.count(), walk(cursor));
+		assertEquals(example.indexOverlay.count(), walk(TreeCursor.of(example.indexOverlay, NodeIndex.of(example.indexOverlay))));
+		cursor.reset();
+		assertEquals(0, cursor.index());
+		assertTrue(cursor.firstChild());
+		assertTrue(cursor.firstChild());
+		assertTrue(cursor.firstChild());
+		assertEquals("member", example.indexOverlay.rule(cursor.index()).name);
+		assertFalse(cursor.nextSibling());
+		assertTrue(cursor.parent());
+		assertEquals("object", example.indexOverlay.rule(cursor.index()).name);
+		assertEquals(0, cursor.start());
+		assertEquals(737, cursor.end());
+	}
+
+	@Test
+	public void sameWalkOnAllTrees() {
+		ParseTree tree = new ParseTree(10);
+		Grammar.Rule r = Grammar.Rule.literal(new byte[0]).as("r");
+		BParseTree btree = new BParseTree(ByteBuffer.allocate(0), 10);
+		alma.lang.ParseTree atree = new alma.lang.ParseTree(10, new String[] { "r" });
+		String shape = "((()())(()))";
+		for (int p = 0; p < shape.length(); p++) {
+			if (shape.charAt(p) == '(') {
+				tree.push(r, p);
+				btree.push(1, p);
+				atree.push(1, p);
+			} else {
+				tree.done(p);
+				btree.done(p);
+				atree.done(p);
+			}
+		}
+		String expected = walkText(TreeCursor.of(tree));
+		assertEquals("0:11(1:6(2:3 4:5) 7:10(8:9))", expected);
+		assertEquals(expected, walkText(TreeCursor.of(btree)));
+		assertEquals(expected, walkText(TreeCursor.of(atree)));
+		assertEquals(expected, walkText(TreeCursor.of(tree, NodeIndex.of(tree))));
+	}
+
+	private static int walk(TreeCursor cursor) {
+		int nodes = 1;
+		if (cursor.firstChild()) {
+			do {
+				nodes += walk(cursor);
+			} while (cursor.nextSibling());
+			cursor.parent();
+		}
+		return nodes;
+	}
+
+	private static String walkText(TreeCursor cursor) {
+		StringBuilder b = new StringBuilder();
+		b.append(cursor.start()).append(':').append(cursor.end());
+		if (cursor.firstChild()) {
+			b.append('(');
+			do {
+				b.append(walkText(cursor)).append(' ');
+			} while (cursor.nextSibling());
+			b.setLength(b.length()-1);
+			b.append(')');
+			cursor.parent();
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,111 @@
+package bruno.lang.grammar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import bruno.lang.grammar.Grammar.Rule;
+
+public class TestViews {
+
+	@Test
+	public void jsonViews() throws IOException {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder src = new StringBuilder();
+		Views.generate(json, "bruno.lang.json", "Json", src);
+		String s = src.toString();
+		assertTrue(s.startsWith("package bruno.lang.json;"));
+		assertTrue(s.contains("\tpublic static final class Member extends View {\n"));
+		assertTrue(s.contains("\t\tpublic static final int ID = "+json.id("member")+";\n"));
+		assertTrue(s.contains("\t\tpublic static final java.lang.String NAME = \"member\";\n"));
+		assertTrue(s.contains("\t\tpublic Name name(Name view) {\n\t\t\treturn view.at(child(Name.ID, index));\n\t\t}\n"));
+		assertTrue(s.contains("\t\tpublic Member nextMember(Member view) {\n\t\t\treturn view.at(child(Member.ID, view.index()));\n\t\t}\n"));
+		assertTrue(s.contains("\t\tpublic Null null_(Null view) {\n"));
+		assertTrue(!s.contains("public Name nextName(Name view) {"));
+	}
+
+	@Test
+	public void nonCaptureRuleOfTheSameName() throws IOException {
+		Rule item = Rule.literal(UTF8.bytes("a")).as("item");
+		Grammar g = new Grammar(Rule.include("item"), Rule.seq(item, item).as("list"));
+		StringBuilder src = new StringBuilder();
+		Views.generate(g, "", "Items", src);
+		String s = src.toString();
+		assertTrue(s.contains("\tpublic static final class Item extends View {\n"));
+		assertTrue(s.contains("\t\tpublic static final int ID = "+g.id("item")+";\n"));
+		assertTrue(s.contains("\t\tpublic Item item(Item view) {\n"));
+		assertFalse(s.contains("null"));
+	}
+
+	@Test
+	public void generatedViewsCompileAndNavigate() throws Exception {
+		Grammar json = Alma.make("alma/prelude.alma", "alma/json.alma");
+		StringBuilder src = new StringBuilder();
+		Views.generate(json, "bruno.lang.json", "Json", src);
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		assertNotNull(javac);
+		File dir = Files.createTempDirectory("views").toFile();
+		try {
+			File file = new File(dir, "bruno/lang/json/Json.java");
+			file.getParentFile().mkdirs();
+			Files.write(file.toPath(), UTF8.bytes(src.toString()));
+			assertEquals(0, javac.run(null, null, null, "-d", dir.getPath(), "-cp", System.getProperty("java.class.path"), file.getPath()));
+			ByteBuffer input = ByteBuffer.wrap(UTF8.bytes("{\"a\": 1, \"bc\": 2}"));
+			ParseTree tree = new ParseTree(json, 64);
+			assertEquals(input.limit(), Parser.parse(json.rule("file"), tree, input));
+			int object = 0;
+			while (tree.id(object) != json.id("object")) {
+				object++;
+			}
+			try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, View.class.getClassLoader())) {
+				Class<?> objectView = loader.loadClass("bruno.lang.json.Json$Object");
+				Class<?> memberView = loader.loadClass("bruno.lang.json.Json$Member");
+				Class<?> nameView = loader.loadClass("bruno.lang.json.Json$Name");
+				View o = view(objectView, tree);
+				View m = view(memberView, tree);
+				View n = view(nameView, tree);
+				objectView.getMethod("at", int.class).invoke(o, object);
+				objectView.getMethod("member", memberView).invoke(o, m);
+				assertEquals(Boolean.TRUE, memberView.getMethod("is", ParseTree.class, int.class).invoke(null, tree, m.index()));
+				memberView.getMethod("name", nameView).invoke(m, n);
+				assertEquals(1, n.start());
+				assertEquals(4, n.end());
+				objectView.getMethod("nextMember", memberView).invoke(o, m);
+				memberView.getMethod("name", nameView).invoke(m, n);
+				assertEquals(9, n.start());
+				assertEquals(13, n.end());
+				objectView.getMethod("nextMember", memberView).invoke(o, m);
+				assertFalse(m.exists());
+			}
+		} finally {
+			delete(dir);
+		}
+	}
+
+	private static View view(Class<?> cls, ParseTree tree) throws Exception {
+		return (View) cls.getConstructor(ParseTree.class).newInstance(tree);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+}